@@ -0,0 +1,85 @@
+package csi.benchmark;
+
+import csi.business.MergeResult;
+import csi.business.PriceService;
+import csi.business.PriceServiceImpl;
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import csi.internal.PriceRepositories;
+import csi.internal.PriceRepository;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Imports {@code rows} random weekly prices spread over {@code skus} products into an empty repository.
+ * The prices are generated once; every single-shot iteration empties the repository before it imports them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BulkImportBenchmark {
+
+    @Param({"memory", "offheap"})
+    public String repositoryType;
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"1000", "100000"})
+    public int skus;
+
+    private PriceRepository repository;
+    private PriceService service;
+    private List<Price> prices;
+
+    @Setup(Level.Trial)
+    public void createService() {
+        repository = PriceRepositories.create(repositoryType);
+        service = new PriceServiceImpl(repository);
+        Random random = new Random(42);
+        prices = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            int day = random.nextInt(365);
+            prices.add(new Price(
+                    "sku" + random.nextInt(skus),
+                    1,
+                    2,
+                    PriceMergeBenchmark.day(day),
+                    PriceMergeBenchmark.day(day + 1 + random.nextInt(7)),
+                    new PositiveAmount(100 + random.nextInt(5))
+            ));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void emptyRepository() {
+        repository.truncate();
+    }
+
+    @Benchmark
+    public MergeResult addAll() {
+        return service.addAll(prices);
+    }
+
+    @Benchmark
+    public MergeResult addAllInParallel() {
+        return service.addAllInParallel(prices);
+    }
+
+    @Benchmark
+    public int addOneByOne() {
+        prices.forEach(service::add);
+        return prices.size();
+    }
+}
@@ -0,0 +1,73 @@
+package csi.benchmark;
+
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import csi.internal.PriceBook;
+import csi.internal.PriceRepositories;
+import csi.internal.PriceRepository;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Effective prices of {@code skus} products with {@code pricesPerSku} daily prices each at one instant:
+ * the bulk {@link PriceRepository#materializeAt} against filtering {@link PriceRepository#findAll}.
+ * The 10M SKU target runs with {@code -p repositoryType=offheap -p skus=10000000 -p pricesPerSku=1}
+ * and a heap of about 5 GB, since keys and indexes take about 350 bytes of heap per SKU.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PriceBookBenchmark {
+
+    @Param({"memory", "offheap"})
+    public String repositoryType;
+
+    @Param({"100000"})
+    public int skus;
+
+    @Param({"10"})
+    public int pricesPerSku;
+
+    private PriceRepository repository;
+    private LocalDateTime instant;
+
+    @Setup(Level.Trial)
+    public void fillRepository() {
+        repository = PriceRepositories.create(repositoryType);
+        repository.truncate();
+        for (int sku = 0; sku < skus; sku++) {
+            for (int day = 0; day < pricesPerSku; day++) {
+                repository.save(new Price("sku" + sku, 1, 2,
+                        PriceMergeBenchmark.day(day), PriceMergeBenchmark.day(day + 1), new PositiveAmount(100 + day % 3)));
+            }
+        }
+        instant = PriceMergeBenchmark.day(pricesPerSku / 2);
+    }
+
+    @Benchmark
+    public PriceBook materializeAt() {
+        return repository.materializeAt(instant);
+    }
+
+    @Benchmark
+    public List<Price> filterFindAll() {
+        List<Price> effective = new ArrayList<>(skus);
+        for (Price price : repository.findAll()) {
+            if (!price.getBegin().isAfter(instant) && price.getEnd().isAfter(instant)) {
+                effective.add(price);
+            }
+        }
+        return effective;
+    }
+}
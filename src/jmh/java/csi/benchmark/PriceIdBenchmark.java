@@ -0,0 +1,42 @@
+package csi.benchmark;
+
+import csi.internal.BlockIdAllocator;
+import csi.internal.PriceIdAllocator;
+import csi.internal.SequentialIdAllocator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Id allocation from 32 threads at once. Per-operation time of the shared counter grows with the number
+ * of threads fighting for its cache line, while block allocation stays flat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(32)
+public class PriceIdBenchmark {
+
+    @Param({"sequential", "block"})
+    public String allocatorType;
+
+    private PriceIdAllocator allocator;
+
+    @Setup(Level.Trial)
+    public void createAllocator() {
+        allocator = "block".equals(allocatorType) ? new BlockIdAllocator(1024) : new SequentialIdAllocator();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return allocator.nextId();
+    }
+}
@@ -0,0 +1,76 @@
+package csi.benchmark;
+
+import csi.business.PriceService;
+import csi.business.PriceServiceImpl;
+import csi.internal.JournaledPriceRepository;
+import csi.internal.OffHeapPriceRepository;
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import csi.internal.PriceRepository;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Durable merges from 32 threads into random products: each {@code add} returns after the journal fsync,
+ * which the threads share. {@code none} is the same service without a journal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(32)
+public class PriceJournalBenchmark {
+
+    @Param({"none", "journal"})
+    public String durability;
+
+    @Param({"10000"})
+    public int skus;
+
+    private Path directory;
+    private PriceRepository repository;
+    private PriceService service;
+
+    @Setup(Level.Trial)
+    public void openRepository() throws IOException {
+        directory = Files.createTempDirectory("journal-benchmark");
+        repository = "journal".equals(durability)
+                ? new JournaledPriceRepository(new OffHeapPriceRepository(), directory)
+                : new OffHeapPriceRepository();
+        service = new PriceServiceImpl(repository);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() throws Exception {
+        if (repository instanceof AutoCloseable) {
+            ((AutoCloseable) repository).close();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void add() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int day = random.nextInt(365);
+        service.add(new Price("sku" + random.nextInt(skus), 1, 2,
+                PriceMergeBenchmark.day(day), PriceMergeBenchmark.day(day + 1 + random.nextInt(7)),
+                new PositiveAmount(100 + random.nextInt(3))));
+    }
+}
@@ -0,0 +1,66 @@
+package csi.benchmark;
+
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import csi.internal.PriceRepositories;
+import csi.internal.PriceRepository;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Lookups in a repository of {@code skus} products with {@code pricesPerSku} daily prices each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PriceLookupBenchmark {
+
+    @Param({"memory", "offheap"})
+    public String repositoryType;
+
+    @Param({"10000"})
+    public int skus;
+
+    @Param({"10", "365"})
+    public int pricesPerSku;
+
+    private PriceRepository repository;
+
+    @Setup(Level.Trial)
+    public void fillRepository() {
+        repository = PriceRepositories.create(repositoryType);
+        repository.truncate();
+        for (int sku = 0; sku < skus; sku++) {
+            for (int day = 0; day < pricesPerSku; day++) {
+                repository.save(new Price("sku" + sku, 1, 2,
+                        PriceMergeBenchmark.day(day), PriceMergeBenchmark.day(day + 1), new PositiveAmount(100 + day % 3)));
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Price> findByCodeAndNumber() {
+        return repository.findByCodeAndNumber(randomSku(), 1);
+    }
+
+    @Benchmark
+    public List<Price> findActiveAt() {
+        LocalDateTime instant = PriceMergeBenchmark.day(ThreadLocalRandom.current().nextInt(pricesPerSku)).plusHours(12);
+        return repository.findActiveAt(randomSku(), 1, instant);
+    }
+
+    private String randomSku() {
+        return "sku" + ThreadLocalRandom.current().nextInt(skus);
+    }
+}
@@ -0,0 +1,110 @@
+package csi.benchmark;
+
+import csi.business.PriceService;
+import csi.business.PriceServiceImpl;
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import csi.internal.PriceRepositories;
+import csi.internal.PriceRepository;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link PriceService#add} against a timeline of {@code timeline} daily prices of alternating amounts.
+ * Every add needs an untouched timeline, so an iteration builds {@value #BATCH} equal products outside
+ * of the measurement and times one batch which adds once to each of them: divide the score by {@value #BATCH}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, batchSize = PriceMergeBenchmark.BATCH)
+@Measurement(iterations = 20, batchSize = PriceMergeBenchmark.BATCH)
+public class PriceMergeBenchmark {
+
+    static final LocalDateTime START = LocalDateTime.of(2018, 1, 1, 0, 0);
+    static final int BATCH = 100;
+
+    @Param({"memory", "offheap"})
+    public String repositoryType;
+
+    @Param({"0", "100", "1000"})
+    public int timeline;
+
+    private PriceRepository repository;
+    private PriceService service;
+    private int middle;
+    private int product;
+
+    @Setup(Level.Trial)
+    public void createService() {
+        repository = PriceRepositories.create(repositoryType);
+        service = new PriceServiceImpl(repository);
+        middle = timeline / 2;
+    }
+
+    @Setup(Level.Iteration)
+    public void fillTimelines() {
+        repository.truncate();
+        for (int number = 0; number < BATCH; number++) {
+            for (int day = 0; day < timeline; day++) {
+                repository.save(price(number, day, day + 1, 100 + day % 2));
+            }
+        }
+        product = 0;
+    }
+
+    /*
+    |-100-|-101-|-100-|  |-150-|
+    */
+    @Benchmark
+    public void addAfterTimeline() {
+        service.add(price(product++, timeline + 1, timeline + 2, 150));
+    }
+
+    /*
+    |-100-|---101---|-100-|
+              |150|
+    */
+    @Benchmark
+    public void addContainedAndSplit() {
+        service.add(new Price("code", product++, 2, day(middle).plusHours(6), day(middle).plusHours(18), new PositiveAmount(150)));
+    }
+
+    /*
+    |-100-|-101-|-100-|
+       |--150--|
+    */
+    @Benchmark
+    public void addOverlappingStartAndEnd() {
+        service.add(new Price("code", product++, 2, day(middle).plusHours(12), day(middle + 1).plusHours(12), new PositiveAmount(150)));
+    }
+
+    /*
+    |-100-|-101-|-100-|
+             |-101-|
+    */
+    @Benchmark
+    public void addSameAmountAndExtend() {
+        service.add(new Price("code", product++, 2, day(middle).plusHours(12), day(middle + 1).plusHours(12),
+                new PositiveAmount(100 + middle % 2)));
+    }
+
+    static Price price(int number, int fromDay, int toDay, int amount) {
+        return new Price("code", number, 2, day(fromDay), day(toDay), new PositiveAmount(amount));
+    }
+
+    static LocalDateTime day(int day) {
+        return START.plusDays(day);
+    }
+}
@@ -0,0 +1,309 @@
+package csi.benchmark;
+
+import csi.business.PriceService;
+import csi.business.PriceServiceImpl;
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import csi.internal.PriceRepositories;
+import csi.metrics.Histogram;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load and soak run of {@link PriceService} outside of JMH: {@code threads} clients import prices and look them up
+ * for {@code duration} seconds, reporting throughput, latency percentiles and heap every {@code report} seconds.
+ * At the end every timeline is checked against the merge rules: prices which overlap have the same amount,
+ * and the prices cover exactly the hours the imported prices covered, so merges neither left a gap nor
+ * stretched a price past the imported periods. The process exits with 1 if a check or a call failed.
+ * <p>
+ * Settings are {@code csi.load.*} system properties, see the constants; the repository is chosen by
+ * the usual {@code csi.price.*} ones. Period lengths in hours are exponential with mean {@code period.mean}
+ * and capped by {@code period.max}. With probability {@code overlap} an import lands inside the history
+ * of its timeline, otherwise after it; an overlapping import has the base amount of its product with
+ * probability {@code sameAmount} and gets extended into, otherwise it trims or splits what it meets.
+ * <pre>
+ * ./gradlew soak -Dcsi.load.threads=32 -Dcsi.load.duration=3600 -Dcsi.price.repository=offheap
+ * </pre>
+ */
+public final class PriceSoak {
+
+    private static final String THREADS = "csi.load.threads";
+    private static final String SKUS = "csi.load.skus";
+    private static final String DEPARTMENTS = "csi.load.departments";
+    private static final String DURATION = "csi.load.duration";
+    private static final String REPORT = "csi.load.report";
+    private static final String PRELOAD = "csi.load.preload";
+    private static final String BATCH = "csi.load.batch";
+    private static final String READS = "csi.load.reads";
+    private static final String OVERLAP = "csi.load.overlap";
+    private static final String SAME_AMOUNT = "csi.load.sameAmount";
+    private static final String PERIOD_MEAN = "csi.load.period.mean";
+    private static final String PERIOD_MAX = "csi.load.period.max";
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private final int threads = Integer.getInteger(THREADS, Runtime.getRuntime().availableProcessors() * 4);
+    private final int skus = Integer.getInteger(SKUS, 10_000);
+    private final int departments = Integer.getInteger(DEPARTMENTS, 2);
+    private final int durationSeconds = Integer.getInteger(DURATION, 60);
+    private final int reportSeconds = Integer.getInteger(REPORT, 10);
+    private final int preload = Integer.getInteger(PRELOAD, 10);
+    private final int batch = Integer.getInteger(BATCH, 1);
+    private final double reads = Double.parseDouble(System.getProperty(READS, "0.8"));
+    private final double overlap = Double.parseDouble(System.getProperty(OVERLAP, "0.5"));
+    private final double sameAmount = Double.parseDouble(System.getProperty(SAME_AMOUNT, "0.3"));
+    private final int periodMean = Integer.getInteger(PERIOD_MEAN, 7 * 24);
+    private final int periodMax = Integer.getInteger(PERIOD_MAX, 90 * 24);
+
+    private final PriceService service = new PriceServiceImpl(PriceRepositories.configured());
+    private final Coverage[] imported = new Coverage[skus * departments];
+    private final AtomicInteger[] horizons = new AtomicInteger[skus * departments];
+
+    private final Histogram writeLatency = new Histogram();
+    private final Histogram readLatency = new Histogram();
+    private final AtomicReference<Histogram> intervalWrites = new AtomicReference<>(new Histogram());
+    private final AtomicReference<Histogram> intervalReads = new AtomicReference<>(new Histogram());
+    private final LongAdder failures = new LongAdder();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private PriceSoak() {
+        for (int key = 0; key < imported.length; key++) {
+            imported[key] = new Coverage();
+            horizons[key] = new AtomicInteger();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.exit(new PriceSoak().run() ? 0 : 1);
+    }
+
+    private boolean run() throws InterruptedException {
+        System.out.printf("Нагрузка: %d потоков, %d товаров x %d отделов, %.0f%% чтений, %.0f%% пересечений, %d с%n",
+                threads, skus, departments, reads * 100, overlap * 100, durationSeconds);
+        preload();
+        long heapBefore = usedHeapAfterGc();
+
+        ExecutorService clients = Executors.newFixedThreadPool(threads);
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (int i = 0; i < threads; i++) {
+            clients.execute(() -> drive(deadline));
+        }
+        clients.shutdown();
+        long reported = started;
+        while (!clients.awaitTermination(reportSeconds, TimeUnit.SECONDS)) {
+            long now = System.nanoTime();
+            report(now - started, now - reported, intervalWrites.getAndSet(new Histogram()), intervalReads.getAndSet(new Histogram()));
+            reported = now;
+        }
+        long elapsed = System.nanoTime() - started;
+
+        System.out.println("Итого:");
+        report(elapsed, elapsed, writeLatency, readLatency);
+        long heapAfter = usedHeapAfterGc();
+        System.out.printf("Рост кучи: %d МБ (%d -> %d МБ)%n", (heapAfter - heapBefore) >> 20, heapBefore >> 20, heapAfter >> 20);
+        return verify();
+    }
+
+    private void preload() {
+        List<Price> prices = new ArrayList<>();
+        for (int key = 0; key < imported.length; key++) {
+            for (int i = 0; i < preload; i++) {
+                prices.add(nextPrice(key, ThreadLocalRandom.current()));
+            }
+        }
+        long started = System.nanoTime();
+        service.addAllInParallel(prices);
+        System.out.printf("Загружено %d цен за %d мс%n", prices.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private void drive(long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            try {
+                if (random.nextDouble() < reads) {
+                    read(random);
+                } else {
+                    write(random);
+                }
+            } catch (RuntimeException e) {
+                failures.increment();
+                if (failures.sum() == 1) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void write(ThreadLocalRandom random) {
+        List<Price> prices = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            prices.add(nextPrice(random.nextInt(imported.length), random));
+        }
+        long started = System.nanoTime();
+        if (batch == 1) {
+            service.add(prices.get(0));
+        } else {
+            service.addAll(prices);
+        }
+        record(writeLatency, intervalWrites, started);
+    }
+
+    private void read(ThreadLocalRandom random) {
+        int key = random.nextInt(imported.length);
+        long started = System.nanoTime();
+        if (random.nextInt(5) == 0) {
+            service.findByCodeNumberAndDepart(code(key), 1, depart(key));
+        } else {
+            service.findEffective(code(key), 1, depart(key), START.plusHours(random.nextInt(Math.max(1, horizons[key].get()))));
+        }
+        record(readLatency, intervalReads, started);
+    }
+
+    private void record(Histogram total, AtomicReference<Histogram> interval, long started) {
+        long latency = System.nanoTime() - started;
+        total.record(latency);
+        interval.get().record(latency);
+    }
+
+    /**
+     * Next import for a timeline; its period is added to the hours the timeline must cover before it is sent.
+     */
+    private Price nextPrice(int key, ThreadLocalRandom random) {
+        int length = (int) Math.min(periodMax, 1 + Math.round(-Math.log(1 - random.nextDouble()) * periodMean));
+        int horizon = horizons[key].get();
+        boolean overlapping = horizon > 0 && random.nextDouble() < overlap;
+        int begin = overlapping ? random.nextInt(horizon) : horizon + random.nextInt(24);
+        int base = 100 + key / departments % 50;
+        int amount = !overlapping || random.nextDouble() < sameAmount ? base : base + 1 + random.nextInt(20);
+        horizons[key].accumulateAndGet(begin + length, Math::max);
+        imported[key].add(begin, begin + length);
+        return new Price(code(key), 1, depart(key), START.plusHours(begin), START.plusHours(begin + length), new PositiveAmount(amount));
+    }
+
+    private boolean verify() {
+        int overlaps = 0;
+        int mismatches = 0;
+        for (int key = 0; key < imported.length; key++) {
+            List<Price> timeline = new ArrayList<>(service.findByCodeNumberAndDepart(code(key), 1, depart(key)));
+            timeline.sort(Comparator.comparing(Price::getBegin));
+            Coverage stored = new Coverage();
+            for (int i = 0; i < timeline.size(); i++) {
+                Price price = timeline.get(i);
+                stored.add(hours(price.getBegin()), hours(price.getEnd()));
+                for (int j = i + 1; j < timeline.size() && timeline.get(j).getBegin().isBefore(price.getEnd()); j++) {
+                    if (timeline.get(j).getAmount().getValue().compareTo(price.getAmount().getValue()) != 0) {
+                        overlaps++;
+                        report("пересекаются цены с разными значениями", price, timeline.get(j), overlaps);
+                    }
+                }
+            }
+            if (!stored.equals(imported[key])) {
+                mismatches++;
+                if (mismatches <= 10) {
+                    System.out.println("Покрытие " + code(key) + "/" + depart(key) + " " + stored + " вместо " + imported[key]);
+                }
+            }
+        }
+        System.out.printf("Проверено %d цен: %d пересечений с разными значениями, %d расхождений покрытия, %d ошибок вызовов%n",
+                service.findAll().size(), overlaps, mismatches, failures.sum());
+        return overlaps == 0 && mismatches == 0 && failures.sum() == 0;
+    }
+
+    private static void report(String problem, Price first, Price second, int count) {
+        if (count <= 10) {
+            System.out.println("Ошибка: " + problem + ": " + describe(first) + " и " + describe(second));
+        }
+    }
+
+    private static String describe(Price price) {
+        return price.getProductCode() + "/" + price.getDepart() + " [" + hours(price.getBegin()) + ", "
+                + hours(price.getEnd()) + ") " + price.getAmount().getValue();
+    }
+
+    private void report(long elapsed, long interval, Histogram writes, Histogram reads) {
+        double seconds = interval / 1e9;
+        System.out.printf("%5d с  запись %8.0f/с p50 %s p99 %s p999 %s  чтение %8.0f/с p50 %s p99 %s p999 %s  куча %d МБ%n",
+                TimeUnit.NANOSECONDS.toSeconds(elapsed),
+                writes.getCount() / seconds, micros(writes, 50), micros(writes, 99), micros(writes, 99.9),
+                reads.getCount() / seconds, micros(reads, 50), micros(reads, 99), micros(reads, 99.9),
+                memory.getHeapMemoryUsage().getUsed() >> 20);
+    }
+
+    private static String micros(Histogram histogram, double percentile) {
+        return String.format("%dмкс", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(percentile)));
+    }
+
+    private long usedHeapAfterGc() {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private String code(int key) {
+        return "sku" + key / departments;
+    }
+
+    private int depart(int key) {
+        return key % departments + 1;
+    }
+
+    private static int hours(LocalDateTime dateTime) {
+        return (int) ChronoUnit.HOURS.between(START, dateTime);
+    }
+
+    /**
+     * Union of half-open hour ranges, touching ones joined.
+     */
+    private static final class Coverage {
+
+        private final TreeMap<Integer, Integer> ranges = new TreeMap<>();
+
+        synchronized void add(int begin, int end) {
+            Map.Entry<Integer, Integer> before = ranges.floorEntry(begin);
+            if (before != null && before.getValue() >= begin) {
+                begin = before.getKey();
+                end = Math.max(end, before.getValue());
+            }
+            for (Map.Entry<Integer, Integer> next = ranges.ceilingEntry(begin);
+                 next != null && next.getKey() <= end;
+                 next = ranges.ceilingEntry(begin)) {
+                end = Math.max(end, next.getValue());
+                ranges.remove(next.getKey());
+            }
+            ranges.put(begin, end);
+        }
+
+        @Override
+        public synchronized boolean equals(Object other) {
+            return other instanceof Coverage && ranges.equals(((Coverage) other).snapshot());
+        }
+
+        @Override
+        public synchronized int hashCode() {
+            return ranges.hashCode();
+        }
+
+        @Override
+        public synchronized String toString() {
+            return ranges.toString();
+        }
+
+        private synchronized Map<Integer, Integer> snapshot() {
+            return new TreeMap<>(ranges);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package csi.business;
+
+import csi.internal.ProductKey;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Products a compaction has to visit. A compacted product only changes again when a merge writes to it
+ * or when the horizon passes the end of its earliest price, so after the first full pass a compaction
+ * takes the products written since and the products whose earliest end is at or before the horizon.
+ * Writes which bypass {@link PriceService} are not seen.
+ * <p>
+ * {@link #written} and {@link #compacted} of a product are called while it is locked.
+ */
+class CompactionIndex {
+
+    private static final Comparator<Expiry> BY_END = Comparator.<Expiry, LocalDateTime>comparing(expiry -> expiry.end)
+            .thenComparingLong(expiry -> expiry.sequence);
+
+    private final Set<ProductKey> written = ConcurrentHashMap.newKeySet();
+    private final ConcurrentSkipListSet<Expiry> expiring = new ConcurrentSkipListSet<>(BY_END);
+    private final Map<ProductKey, Expiry> expiries = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean indexed;
+
+    void written(ProductKey key) {
+        written.add(key);
+    }
+
+    /**
+     * Every stored product until a full pass has {@linkplain #indexed indexed} them.
+     */
+    Set<ProductKey> due(LocalDateTime horizon, Supplier<Set<ProductKey>> allKeys) {
+        if (!indexed) {
+            return allKeys.get();
+        }
+        Set<ProductKey> due = new LinkedHashSet<>(written);
+        if (horizon != null) {
+            for (Expiry expiry : expiring.headSet(new Expiry(null, horizon, Long.MAX_VALUE), true)) {
+                due.add(expiry.key);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * @param earliestEnd end of the product's earliest price after the compaction, {@code null} if none is left
+     */
+    void compacted(ProductKey key, LocalDateTime earliestEnd) {
+        written.remove(key);
+        Expiry expiry = earliestEnd == null ? null : new Expiry(key, earliestEnd, sequence.incrementAndGet());
+        Expiry previous = expiry == null ? expiries.remove(key) : expiries.put(key, expiry);
+        if (previous != null) {
+            expiring.remove(previous);
+        }
+        if (expiry != null) {
+            expiring.add(expiry);
+        }
+    }
+
+    /**
+     * Called once a full pass visited every product, from then on only {@link #due} products are visited.
+     */
+    void indexed() {
+        indexed = true;
+    }
+
+    private static final class Expiry {
+
+        private final ProductKey key;
+        private final LocalDateTime end;
+        private final long sequence;
+
+        private Expiry(ProductKey key, LocalDateTime end, long sequence) {
+            this.key = key;
+            this.end = end;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package csi.business;
+
+public class CompactionResult {
+
+    private long products;
+    private long coalesced;
+    private long expired;
+
+    void product() {
+        products++;
+    }
+
+    void coalesced() {
+        coalesced++;
+    }
+
+    void expired() {
+        expired++;
+    }
+
+    public CompactionResult add(CompactionResult result) {
+        this.products += result.products;
+        this.coalesced += result.coalesced;
+        this.expired += result.expired;
+        return this;
+    }
+
+    public long getProducts() {
+        return products;
+    }
+
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    public long getExpired() {
+        return expired;
+    }
+
+    /**
+     * Rows removed from the repository.
+     */
+    public long getReclaimed() {
+        return coalesced + expired;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactionResult{products=" + products +
+                ", coalesced=" + coalesced +
+                ", expired=" + expired + "}";
+    }
+}
@@ -0,0 +1,165 @@
+package csi.business;
+
+import csi.internal.Price;
+import csi.internal.ProductKey;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the effective price per product and per department, evicting entries which were not used since
+ * the eviction last passed them (second chance), an approximation of least recently used.
+ * An entry answers every lookup inside the window it was loaded with, by default its price's period,
+ * and expires at the window's end. Departments of a product overlap, so a price effective for the whole
+ * product is only cached between the begins and ends of the other departments' prices around the lookup.
+ * Merges invalidate the products they touch; writes which bypass {@link PriceService} are not seen.
+ * <p>
+ * Hits only read the concurrent map. A load is only cached if no merge invalidated a key of its stripe
+ * meanwhile; the check and the invalidation both run inside the map's update of the key, so a load
+ * which raced a merge of its own key is never cached.
+ */
+public class EffectivePriceCache {
+
+    private static final int STRIPES = 1024;
+
+    private final int maximumSize;
+    private final ConcurrentHashMap<ProductKey, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+    private final Lock evicting = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public EffectivePriceCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    Price get(ProductKey key, LocalDateTime instant, Supplier<Price> loader) {
+        return getWithin(key, instant, () -> {
+            Price loaded = loader.get();
+            return loaded == null ? null : new Window(loaded, loaded.getBegin(), loaded.getEnd());
+        });
+    }
+
+    /**
+     * Like {@link #get}, for a price which stays effective only within the window the loader returns with it.
+     */
+    Price getWithin(ProductKey key, LocalDateTime instant, Supplier<Window> loader) {
+        Entry cached = entries.get(key);
+        if (cached != null) {
+            if (!cached.from.isAfter(instant) && cached.until.isAfter(instant)) {
+                cached.referenced = true;
+                hits.increment();
+                return cached.price;
+            }
+            if (!cached.until.isAfter(instant)) {
+                entries.remove(key, cached);
+            }
+        }
+        int stripe = stripe(key);
+        long loadedGeneration = generations.get(stripe);
+        misses.increment();
+        Window loaded = loader.get();
+        if (loaded == null) {
+            return null;
+        }
+        Entry entry = new Entry(key, loaded);
+        entries.compute(key, (product, current) -> generations.get(stripe) == loadedGeneration ? entry : current);
+        evictIfFull();
+        return loaded.price;
+    }
+
+    void invalidate(ProductKey key) {
+        int stripe = stripe(key);
+        entries.compute(key, (product, current) -> {
+            generations.incrementAndGet(stripe);
+            return null;
+        });
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * One thread at a time sweeps the entries like a clock hand: a used entry loses its mark, an unused one goes.
+     */
+    private void evictIfFull() {
+        if (entries.size() <= maximumSize || !evicting.tryLock()) {
+            return;
+        }
+        try {
+            Iterator<Entry> hand = entries.values().iterator();
+            while (entries.size() > maximumSize) {
+                if (!hand.hasNext()) {
+                    hand = entries.values().iterator();
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+                Entry entry = hand.next();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else if (entries.remove(entry.key, entry)) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    private static int stripe(ProductKey key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * A price and the period {@code [from, until)} around the lookup in which it stays the answer.
+     */
+    static final class Window {
+
+        private final Price price;
+        private final LocalDateTime from;
+        private final LocalDateTime until;
+
+        Window(Price price, LocalDateTime from, LocalDateTime until) {
+            this.price = price;
+            this.from = from;
+            this.until = until;
+        }
+    }
+
+    private static final class Entry {
+
+        private final ProductKey key;
+        private final Price price;
+        private final LocalDateTime from;
+        private final LocalDateTime until;
+        private volatile boolean referenced;
+
+        private Entry(ProductKey key, Window window) {
+            this.key = key;
+            this.price = window.price;
+            this.from = window.from;
+            this.until = window.until;
+        }
+    }
+}
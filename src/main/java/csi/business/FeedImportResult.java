@@ -0,0 +1,40 @@
+package csi.business;
+
+import java.util.concurrent.TimeUnit;
+
+public class FeedImportResult {
+
+    private final long        rows;
+    private final long        elapsedNanos;
+    private final MergeResult mergeResult;
+
+    FeedImportResult(long rows, long elapsedNanos, MergeResult mergeResult) {
+        this.rows = rows;
+        this.elapsedNanos = elapsedNanos;
+        this.mergeResult = mergeResult;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+    }
+
+    public MergeResult getMergeResult() {
+        return mergeResult;
+    }
+
+    @Override
+    public String toString() {
+        return "FeedImportResult{rows=" + rows +
+                ", elapsedMillis=" + getElapsedMillis() +
+                ", rowsPerSecond=" + Math.round(getRowsPerSecond()) +
+                ", " + mergeResult + "}";
+    }
+}
@@ -0,0 +1,68 @@
+package csi.business;
+
+public class MergeResult {
+
+    private long inserted;
+    private long extended;
+    private long trimmed;
+    private long split;
+    private long deleted;
+
+    void inserted() {
+        inserted++;
+    }
+
+    void extended() {
+        extended++;
+    }
+
+    void trimmed() {
+        trimmed++;
+    }
+
+    void split() {
+        split++;
+    }
+
+    void deleted() {
+        deleted++;
+    }
+
+    public MergeResult add(MergeResult result) {
+        this.inserted += result.inserted;
+        this.extended += result.extended;
+        this.trimmed += result.trimmed;
+        this.split += result.split;
+        this.deleted += result.deleted;
+        return this;
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getExtended() {
+        return extended;
+    }
+
+    public long getTrimmed() {
+        return trimmed;
+    }
+
+    public long getSplit() {
+        return split;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public String toString() {
+        return "MergeResult{inserted=" + inserted +
+                ", extended=" + extended +
+                ", trimmed=" + trimmed +
+                ", split=" + split +
+                ", deleted=" + deleted + "}";
+    }
+}
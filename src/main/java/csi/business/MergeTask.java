@@ -0,0 +1,50 @@
+package csi.business;
+
+import csi.internal.Price;
+import csi.internal.ProductKey;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * Merges groups of new prices, one product per group, splitting the groups between fork-join workers.
+ * A group is never divided, so every product timeline is merged by exactly one thread.
+ */
+class MergeTask extends RecursiveTask<MergeResult> {
+
+    private static final long serialVersionUID = 1L;
+    private static final int THRESHOLD = 64;
+
+    private final List<Map.Entry<ProductKey, List<Price>>> groups;
+    private final Function<Map.Entry<ProductKey, List<Price>>, MergeResult> merge;
+    private final int from;
+    private final int to;
+
+    MergeTask(List<Map.Entry<ProductKey, List<Price>>> groups, Function<Map.Entry<ProductKey, List<Price>>, MergeResult> merge) {
+        this(groups, merge, 0, groups.size());
+    }
+
+    private MergeTask(List<Map.Entry<ProductKey, List<Price>>> groups, Function<Map.Entry<ProductKey, List<Price>>, MergeResult> merge, int from, int to) {
+        this.groups = groups;
+        this.merge = merge;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected MergeResult compute() {
+        if (to - from <= THRESHOLD) {
+            MergeResult result = new MergeResult();
+            for (int i = from; i < to; i++) {
+                result.add(merge.apply(groups.get(i)));
+            }
+            return result;
+        }
+        int middle = (from + to) >>> 1;
+        MergeTask left = new MergeTask(groups, merge, from, middle);
+        left.fork();
+        MergeResult right = new MergeTask(groups, merge, middle, to).compute();
+        return right.add(left.join());
+    }
+}
@@ -0,0 +1,45 @@
+package csi.business;
+
+import csi.internal.Price;
+
+/**
+ * One step of a merge: the version of a price it replaced and the version it stored under the same id.
+ * An inserted price has no previous version, a deleted one has no current version.
+ */
+public class PriceChange {
+
+    public enum Type {
+        INSERTED, EXTENDED, TRIMMED, SPLIT, DELETED, SAVED, COALESCED, EXPIRED
+    }
+
+    private final Type type;
+    private final Price previous;
+    private final Price current;
+
+    PriceChange(Type type, Price previous, Price current) {
+        this.type = type;
+        this.previous = previous;
+        this.current = current;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Price getPrevious() {
+        return previous;
+    }
+
+    public Price getCurrent() {
+        return current;
+    }
+
+    public Long getId() {
+        return current != null ? current.getId() : previous.getId();
+    }
+
+    @Override
+    public String toString() {
+        return "PriceChange{" + type + " " + getId() + ": " + previous + " -> " + current + "}";
+    }
+}
@@ -0,0 +1,12 @@
+package csi.business;
+
+/**
+ * Receives the change set of every flush. It is called while the product is still locked, so change sets
+ * of one product arrive in merge order; a listener should return quickly and must not call back into the service.
+ * What a listener throws does not reach the merge nor the other listeners, it goes to the service's failure handler.
+ */
+@FunctionalInterface
+public interface PriceChangeListener {
+
+    void onChange(PriceChangeSet changes);
+}
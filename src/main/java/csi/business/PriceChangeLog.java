@@ -0,0 +1,46 @@
+package csi.business;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring buffer of the latest change sets. Every change set gets the next position; a consumer remembers
+ * the position after the last one it applied and reads on from there. Once a consumer falls further
+ * behind than the capacity its changes are overwritten and it has to reload everything.
+ */
+public class PriceChangeLog implements PriceChangeListener {
+
+    private final PriceChangeSet[] entries;
+    private long next;
+
+    public PriceChangeLog(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Размер журнала изменений должен быть положительным");
+        }
+        this.entries = new PriceChangeSet[capacity];
+    }
+
+    @Override
+    public synchronized void onChange(PriceChangeSet changes) {
+        entries[(int) (next % entries.length)] = changes;
+        next++;
+    }
+
+    /**
+     * Position the next change set will get.
+     */
+    public synchronized long position() {
+        return next;
+    }
+
+    public synchronized List<PriceChangeSet> readFrom(long position, int limit) {
+        if (position < next - entries.length || position > next) {
+            throw new IllegalArgumentException("Позиция " + position + " вне журнала изменений");
+        }
+        List<PriceChangeSet> changes = new ArrayList<>();
+        for (long i = position; i < next && changes.size() < limit; i++) {
+            changes.add(entries[(int) (i % entries.length)]);
+        }
+        return changes;
+    }
+}
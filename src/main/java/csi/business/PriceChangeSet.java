@@ -0,0 +1,66 @@
+package csi.business;
+
+import csi.internal.Price;
+import csi.internal.ProductKey;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes one flush wrote to a product timeline, in the order the merge rules made them.
+ */
+public class PriceChangeSet {
+
+    private final ProductKey key;
+    private final List<PriceChange> changes;
+
+    PriceChangeSet(ProductKey key, List<PriceChange> changes) {
+        this.key = key;
+        this.changes = Collections.unmodifiableList(changes);
+    }
+
+    public ProductKey getKey() {
+        return key;
+    }
+
+    public List<PriceChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Final version of every price the change set stored, for consumers which only upsert by id.
+     */
+    public Collection<Price> getSaved() {
+        Map<Long, Price> saved = new LinkedHashMap<>();
+        for (PriceChange change : changes) {
+            if (change.getCurrent() != null) {
+                saved.put(change.getId(), change.getCurrent());
+            } else {
+                saved.remove(change.getId());
+            }
+        }
+        return saved.values();
+    }
+
+    /**
+     * Ids of the prices which are gone from the timeline after the change set.
+     */
+    public Collection<Long> getDeleted() {
+        Map<Long, Long> deleted = new LinkedHashMap<>();
+        for (PriceChange change : changes) {
+            if (change.getCurrent() == null) {
+                deleted.put(change.getId(), change.getId());
+            } else {
+                deleted.remove(change.getId());
+            }
+        }
+        return deleted.values();
+    }
+
+    @Override
+    public String toString() {
+        return "PriceChangeSet{" + key + " " + changes + "}";
+    }
+}
@@ -0,0 +1,32 @@
+package csi.business;
+
+import csi.internal.Price;
+import java.time.LocalDateTime;
+
+/**
+ * Shortens a product timeline without changing the price at any instant after the retention horizon.
+ * Prices which ended by the horizon are dropped. A price which follows another one of the same amount
+ * without a gap, or overlaps it, is folded into it, since {@link PriceMerger} only joins strictly overlapping ones.
+ */
+class PriceCompactor {
+
+    void compact(WorkingTimeline timeline, LocalDateTime horizon, CompactionResult result) {
+        result.product();
+        Price run = null;
+        for (Price price : timeline.chronological()) {
+            if (horizon != null && !price.getEnd().isAfter(horizon)) {
+                timeline.delete(price, PriceChange.Type.EXPIRED);
+                result.expired();
+            } else if (run != null && run.haveSameAmountWith(price) && !price.getBegin().isAfter(run.getEnd())) {
+                timeline.delete(price, PriceChange.Type.COALESCED);
+                if (price.getEnd().isAfter(run.getEnd())) {
+                    run = run.withUpdatedDuration(run.getBegin(), price.getEnd());
+                    timeline.save(run, PriceChange.Type.COALESCED);
+                }
+                result.coalesced();
+            } else {
+                run = price;
+            }
+        }
+    }
+}
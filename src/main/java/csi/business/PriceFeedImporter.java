@@ -0,0 +1,306 @@
+package csi.business;
+
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams a price feed into {@link PriceService#addAll} in batches, holding at most one read buffer
+ * and one batch in memory whatever the size of the feed.
+ * <p>
+ * One price per line, fields separated by {@code ;}:
+ * <pre>
+ * productCode;number;depart;begin;end;amount
+ * code;1;2;2018-06-01T00:00;2018-07-01T00:00;199.90
+ * </pre>
+ * Dates are {@code yyyy-MM-ddTHH:mm[:ss[.fffffffff]]}. Empty lines and lines starting with {@code #} are skipped.
+ * Fields are parsed straight from the buffer bytes, product codes are shared between rows.
+ */
+public class PriceFeedImporter {
+
+    private static final byte SEPARATOR = ';';
+    private static final int FIELDS = 6;
+
+    private final PriceService service;
+    private final int bufferSize;
+    private final int batchSize;
+    private final boolean parallel;
+
+    private final ByteBuffer buffer;
+    private final int[] fieldStarts = new int[FIELDS];
+    private final int[] fieldEnds = new int[FIELDS];
+    private final ProductCodes productCodes = new ProductCodes();
+
+    public PriceFeedImporter(PriceService service) {
+        this(service, 1 << 16, 10_000, false);
+    }
+
+    public PriceFeedImporter(PriceService service, int bufferSize, int batchSize, boolean parallel) {
+        this.service = service;
+        this.bufferSize = bufferSize;
+        this.batchSize = batchSize;
+        this.parallel = parallel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public FeedImportResult importFrom(Path feed) throws IOException {
+        try (FileChannel channel = FileChannel.open(feed, StandardOpenOption.READ)) {
+            return importFrom(channel);
+        }
+    }
+
+    public FeedImportResult importFrom(ReadableByteChannel channel) throws IOException {
+        long started = System.nanoTime();
+        MergeResult result = new MergeResult();
+        List<Price> batch = new ArrayList<>(batchSize);
+        long rows = 0;
+        long line = 0;
+
+        ((Buffer) buffer).clear();
+        boolean endOfFeed = false;
+        while (!endOfFeed) {
+            endOfFeed = channel.read(buffer) < 0;
+            ((Buffer) buffer).flip();
+            int lineStart = buffer.position();
+            for (int i = lineStart; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    line++;
+                    if (parseLine(lineStart, i, line, batch)) {
+                        rows++;
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            if (endOfFeed && lineStart < buffer.limit()) {
+                line++;
+                if (parseLine(lineStart, buffer.limit(), line, batch)) {
+                    rows++;
+                }
+                lineStart = buffer.limit();
+            }
+            if (lineStart == 0 && buffer.limit() == bufferSize) {
+                throw new IllegalArgumentException("Строка " + (line + 1) + " длиннее буфера в " + bufferSize + " байт");
+            }
+            ((Buffer) buffer).position(lineStart);
+            buffer.compact();
+
+            if (batch.size() >= batchSize || endOfFeed) {
+                result.add(merge(batch));
+                batch.clear();
+            }
+        }
+        return new FeedImportResult(rows, System.nanoTime() - started, result);
+    }
+
+    private MergeResult merge(List<Price> batch) {
+        if (batch.isEmpty()) {
+            return new MergeResult();
+        }
+        return parallel ? service.addAllInParallel(batch) : service.addAll(batch);
+    }
+
+    private boolean parseLine(int from, int to, long line, List<Price> batch) {
+        if (to > from && buffer.get(to - 1) == '\r') {
+            to--;
+        }
+        if (from == to || buffer.get(from) == '#') {
+            return false;
+        }
+        int field = 0;
+        fieldStarts[0] = from;
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == SEPARATOR) {
+                if (field == FIELDS - 1) {
+                    throw malformed(line, "лишнее поле");
+                }
+                fieldEnds[field++] = i;
+                fieldStarts[field] = i + 1;
+            }
+        }
+        fieldEnds[field] = to;
+        if (field != FIELDS - 1) {
+            throw malformed(line, "ожидается " + FIELDS + " полей");
+        }
+        try {
+            batch.add(new Price(
+                    productCodes.get(buffer, fieldStarts[0], fieldEnds[0]),
+                    parseInt(fieldStarts[1], fieldEnds[1]),
+                    parseInt(fieldStarts[2], fieldEnds[2]),
+                    parseDateTime(fieldStarts[3], fieldEnds[3]),
+                    parseDateTime(fieldStarts[4], fieldEnds[4]),
+                    parseAmount(fieldStarts[5], fieldEnds[5])
+            ));
+        } catch (RuntimeException e) {
+            throw malformed(line, e.getMessage());
+        }
+        return true;
+    }
+
+    private int parseInt(int from, int to) {
+        boolean negative = from < to && buffer.get(from) == '-';
+        long value = parseDigits(negative ? from + 1 : from, to);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("слишком большое число");
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private long parseDigits(int from, int to) {
+        if (from == to) {
+            throw new IllegalArgumentException("пустое число");
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("неверное число");
+            }
+            value = Math.addExact(Math.multiplyExact(value, 10), digit);
+        }
+        return value;
+    }
+
+    private PositiveAmount parseAmount(int from, int to) {
+        boolean negative = from < to && buffer.get(from) == '-';
+        int start = negative ? from + 1 : from;
+        int point = to;
+        for (int i = start; i < to; i++) {
+            if (buffer.get(i) == '.') {
+                point = i;
+                break;
+            }
+        }
+        long units = parseDigits(start, point);
+        int scale = 0;
+        if (point < to) {
+            scale = to - point - 1;
+            for (int i = 0; i < scale; i++) {
+                units = Math.multiplyExact(units, 10);
+            }
+            units = Math.addExact(units, scale == 0 ? 0 : parseDigits(point + 1, to));
+        }
+        return PositiveAmount.of(negative ? -units : units, scale);
+    }
+
+    /**
+     * {@code yyyy-MM-ddTHH:mm[:ss[.fffffffff]]}
+     */
+    private LocalDateTime parseDateTime(int from, int to) {
+        if (to - from < 16 || buffer.get(from + 4) != '-' || buffer.get(from + 7) != '-'
+                || (buffer.get(from + 10) != 'T' && buffer.get(from + 10) != ' ') || buffer.get(from + 13) != ':') {
+            throw new IllegalArgumentException("неверная дата");
+        }
+        int second = 0;
+        int nano = 0;
+        if (to - from > 16) {
+            if (to - from < 19 || buffer.get(from + 16) != ':') {
+                throw new IllegalArgumentException("неверная дата");
+            }
+            second = (int) parseDigits(from + 17, from + 19);
+            if (to - from > 19) {
+                if (buffer.get(from + 19) != '.' || to - from > 29) {
+                    throw new IllegalArgumentException("неверная дата");
+                }
+                nano = (int) parseDigits(from + 20, to);
+                for (int digits = to - from - 20; digits < 9; digits++) {
+                    nano *= 10;
+                }
+            }
+        }
+        return LocalDateTime.of(
+                (int) parseDigits(from, from + 4),
+                (int) parseDigits(from + 5, from + 7),
+                (int) parseDigits(from + 8, from + 10),
+                (int) parseDigits(from + 11, from + 13),
+                (int) parseDigits(from + 14, from + 16),
+                second,
+                nano
+        );
+    }
+
+    private static IllegalArgumentException malformed(long line, String reason) {
+        return new IllegalArgumentException("Неверная строка фида " + line + ": " + reason);
+    }
+
+    /**
+     * Returns the same String for the same code bytes, so repeated codes cost no garbage.
+     */
+    private static class ProductCodes {
+
+        private static final int MAX_SIZE = 1 << 16;
+
+        private byte[][] bytes = new byte[1024][];
+        private String[] codes = new String[1024];
+        private int size;
+
+        String get(ByteBuffer buffer, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            int mask = codes.length - 1;
+            for (int slot = (hash ^ (hash >>> 16)) & mask; ; slot = (slot + 1) & mask) {
+                if (codes[slot] == null) {
+                    byte[] code = new byte[to - from];
+                    for (int i = from; i < to; i++) {
+                        code[i - from] = buffer.get(i);
+                    }
+                    String value = new String(code, StandardCharsets.UTF_8);
+                    if (size < MAX_SIZE) {
+                        bytes[slot] = code;
+                        codes[slot] = value;
+                        if (++size * 2 > codes.length) {
+                            resize();
+                        }
+                    }
+                    return value;
+                }
+                if (matches(bytes[slot], buffer, from, to)) {
+                    return codes[slot];
+                }
+            }
+        }
+
+        private static boolean matches(byte[] code, ByteBuffer buffer, int from, int to) {
+            if (code.length != to - from) {
+                return false;
+            }
+            for (int i = 0; i < code.length; i++) {
+                if (code[i] != buffer.get(from + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void resize() {
+            byte[][] oldBytes = bytes;
+            String[] oldCodes = codes;
+            bytes = new byte[oldBytes.length * 2][];
+            codes = new String[oldCodes.length * 2];
+            int mask = codes.length - 1;
+            for (int i = 0; i < oldCodes.length; i++) {
+                if (oldCodes[i] != null) {
+                    int hash = Arrays.hashCode(oldBytes[i]);
+                    int slot = (hash ^ (hash >>> 16)) & mask;
+                    while (codes[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    bytes[slot] = oldBytes[i];
+                    codes[slot] = oldCodes[i];
+                }
+            }
+        }
+    }
+}
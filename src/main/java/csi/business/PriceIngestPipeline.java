@@ -0,0 +1,201 @@
+package csi.business;
+
+import csi.internal.Price;
+import csi.internal.ProductKey;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+
+/**
+ * Merges submitted prices on a pool of workers. Every product is routed to one lane, a bounded queue
+ * drained by a single worker, so updates to a product are merged in the order they were submitted while
+ * different products are merged in parallel. A full lane blocks the submitter until the worker catches up.
+ * <p>
+ * A worker takes everything already waiting in its lane and merges each product's prices with one
+ * load and one flush of the timeline. Workers run on virtual threads when the JDK has them.
+ */
+public class PriceIngestPipeline implements AutoCloseable {
+
+    public static final String WORKERS_PROPERTY = "csi.price.ingest.workers";
+    public static final String QUEUE_CAPACITY_PROPERTY = "csi.price.ingest.queue";
+
+    private static final Submission STOP = new Submission(null);
+
+    private final BiFunction<ProductKey, List<Price>, List<MergeResult>> merge;
+    private final List<BlockingQueue<Submission>> lanes;
+    private final List<Thread> workers;
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    PriceIngestPipeline(BiFunction<ProductKey, List<Price>, List<MergeResult>> merge, int workers, int queueCapacity) {
+        if (workers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Число обработчиков и размер очереди должны быть положительными");
+        }
+        this.merge = merge;
+        this.lanes = new ArrayList<>(workers);
+        this.workers = new ArrayList<>(workers);
+        ThreadFactory threads = workerThreads();
+        for (int i = 0; i < workers; i++) {
+            BlockingQueue<Submission> lane = new ArrayBlockingQueue<>(queueCapacity);
+            Thread worker = threads.newThread(() -> drain(lane));
+            lanes.add(lane);
+            this.workers.add(worker);
+            worker.start();
+        }
+    }
+
+    static PriceIngestPipeline configured(BiFunction<ProductKey, List<Price>, List<MergeResult>> merge) {
+        return new PriceIngestPipeline(
+                merge,
+                Integer.getInteger(WORKERS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger(QUEUE_CAPACITY_PROPERTY, 1024)
+        );
+    }
+
+    /**
+     * Queues the price behind earlier prices of the same product, blocking while its lane is full.
+     * The future completes with this price's share of the merge.
+     */
+    public CompletableFuture<MergeResult> submit(Price price) {
+        ProductKey key = ProductKey.of(price);
+        Submission submission = new Submission(price);
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Конвейер загрузки цен закрыт");
+            }
+            lanes.get((key.hashCode() & Integer.MAX_VALUE) % lanes.size()).put(submission);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            submission.result.completeExceptionally(e);
+        } finally {
+            closing.readLock().unlock();
+        }
+        return submission.result;
+    }
+
+    /**
+     * Stops accepting prices, merges everything already queued and waits for the workers to finish.
+     * An interrupt does not cut this short, so no queued future is left incomplete; it is kept for the caller.
+     */
+    @Override
+    public void close() {
+        closing.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        boolean interrupted = false;
+        for (BlockingQueue<Submission> lane : lanes) {
+            while (true) {
+                try {
+                    lane.put(STOP);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain(BlockingQueue<Submission> lane) {
+        List<Submission> batch = new ArrayList<>();
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                batch.add(lane.take());
+            } catch (InterruptedException e) {
+                // only STOP ends a lane, everything queued before it still gets merged
+                continue;
+            }
+            lane.drainTo(batch);
+            Map<ProductKey, List<Submission>> byProduct = new LinkedHashMap<>();
+            for (Submission submission : batch) {
+                if (submission == STOP) {
+                    stopped = true;
+                } else {
+                    byProduct.computeIfAbsent(ProductKey.of(submission.price), key -> new ArrayList<>()).add(submission);
+                }
+            }
+            byProduct.forEach(this::merge);
+            batch.clear();
+        }
+    }
+
+    /**
+     * A failed batch is retried price by price, so only the prices which fail on their own fail their futures.
+     */
+    private void merge(ProductKey key, List<Submission> submissions) {
+        List<Price> prices = new ArrayList<>(submissions.size());
+        submissions.forEach(submission -> prices.add(submission.price));
+        try {
+            List<MergeResult> results = merge.apply(key, prices);
+            for (int i = 0; i < submissions.size(); i++) {
+                submissions.get(i).result.complete(results.get(i));
+            }
+        } catch (RuntimeException | Error e) {
+            if (submissions.size() == 1) {
+                submissions.get(0).result.completeExceptionally(e);
+            } else {
+                submissions.forEach(submission -> merge(key, Collections.singletonList(submission)));
+            }
+        }
+    }
+
+    /**
+     * Virtual threads through reflection, since they only exist from Java 21 on; daemon platform threads otherwise.
+     */
+    private static ThreadFactory workerThreads() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "price-ingest-", 0L);
+            Method factory = builderType.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return runnable -> {
+                Thread thread = new Thread(runnable, "price-ingest-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    private static class Submission {
+
+        private final Price price;
+        private final CompletableFuture<MergeResult> result = new CompletableFuture<>();
+
+        private Submission(Price price) {
+            this.price = price;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package csi.business;
+
+import csi.internal.Price;
+import csi.metrics.PriceMetric;
+import csi.metrics.PriceMetrics;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Merge rules from the README applied to a single product timeline. Every rule only looks at the prices
+ * touching the new one, which the timeline finds through its begin index.
+ */
+class PriceMerger {
+
+    private final PriceMetrics metrics;
+
+    PriceMerger(PriceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void add(WorkingTimeline timeline, Price newPrice, MergeResult result) {
+        Optional<Price> sameAmount = findSameAmountOverlapping(timeline, newPrice);
+        if (sameAmount.isPresent()) {
+            timeline.save(sameAmount.get().mergedWith(newPrice), PriceChange.Type.EXTENDED);
+            result.extended();
+        } else {
+            timeline.save(newPrice, PriceChange.Type.INSERTED);
+            result.inserted();
+        }
+        List<Price> filteredPrices = timeline.touching(newPrice);
+
+        long started = metrics.start();
+        splitPriceWhichContainsNewPrice(timeline, newPrice, filteredPrices, result);
+        metrics.recordLatency(PriceMetric.SPLIT, started);
+
+        started = metrics.start();
+        spreadOverlappedPrices(timeline, newPrice, filteredPrices, result);
+        metrics.recordLatency(PriceMetric.SPREAD, started);
+
+        started = metrics.start();
+        removeContainedPrices(timeline, newPrice, filteredPrices, result);
+        metrics.recordLatency(PriceMetric.REMOVE, started);
+    }
+
+    Price save(WorkingTimeline timeline, Price newPrice) {
+        return save(timeline, newPrice, PriceChange.Type.SAVED);
+    }
+
+    private Price save(WorkingTimeline timeline, Price newPrice, PriceChange.Type type) {
+        return findSameAmountOverlapping(timeline, newPrice)
+                .map(price -> timeline.save(price.mergedWith(newPrice), type))
+                .orElseGet(() -> timeline.save(newPrice, type));
+    }
+
+    private Optional<Price> findSameAmountOverlapping(WorkingTimeline timeline, Price newPrice) {
+        return timeline.touching(newPrice).stream()
+                .filter(price -> price.haveSameAmountWith(newPrice) && price.overlaps(newPrice))
+                .findFirst();
+    }
+
+    private void spreadOverlappedPrices(WorkingTimeline timeline, Price newPrice, List<Price> filteredPrices, MergeResult result) {
+        filteredPrices.stream()
+                .filter(price -> price.overlapsAtStartBy(newPrice))
+                .findFirst()
+                .ifPresent(price -> {
+                    save(timeline, price.withUpdatedDuration(newPrice.getEnd(), price.getEnd()), PriceChange.Type.TRIMMED);
+                    result.trimmed();
+                });
+
+        filteredPrices.stream()
+                .filter(price -> price.overlapsAtEndBy(newPrice))
+                .findFirst()
+                .ifPresent(price -> {
+                    save(timeline, price.withUpdatedDuration(price.getBegin(), newPrice.getBegin()), PriceChange.Type.TRIMMED);
+                    result.trimmed();
+                });
+    }
+
+    private void removeContainedPrices(WorkingTimeline timeline, Price newPrice, List<Price> filteredPrices, MergeResult result) {
+        filteredPrices.stream()
+                .filter(price -> price.containsIn(newPrice))
+                .forEach(price -> {
+                    timeline.delete(price);
+                    result.deleted();
+                });
+    }
+
+    private void splitPriceWhichContainsNewPrice(WorkingTimeline timeline, Price newPrice, List<Price> filteredPrices, MergeResult result) {
+        filteredPrices.stream()
+                .filter(price -> price.contains(newPrice))
+                .findFirst()
+                .ifPresent(price -> {
+                    price.splitBy(newPrice).forEach(part -> save(timeline, part, PriceChange.Type.SPLIT));
+                    result.split();
+                });
+    }
+}
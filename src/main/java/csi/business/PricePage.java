@@ -0,0 +1,55 @@
+package csi.business;
+
+import csi.internal.Price;
+import csi.internal.PriceQuery;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a {@link PriceQuery}. The token of the next page is opaque to clients and only valid for the same query.
+ */
+public class PricePage {
+
+    private final List<Price> prices;
+    private final String nextPageToken;
+
+    PricePage(List<Price> prices, String nextPageToken) {
+        this.prices = Collections.unmodifiableList(prices);
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<Price> getPrices() {
+        return prices;
+    }
+
+    /**
+     * {@code null} on the last page.
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    static String tokenAfter(PriceQuery query, Price last) {
+        LocalDateTime begin = last.getBegin();
+        String position = query.indexOf(last) + ":" + begin.toEpochSecond(ZoneOffset.UTC) + ":" + begin.getNano() + ":" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static PriceQuery resume(PriceQuery query, String token) {
+        try {
+            String[] position = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+            return query.after(
+                    Integer.parseInt(position[0]),
+                    LocalDateTime.ofEpochSecond(Long.parseLong(position[1]), Integer.parseInt(position[2]), ZoneOffset.UTC),
+                    Long.parseLong(position[3])
+            );
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException | DateTimeException e) {
+            throw new IllegalArgumentException("Некорректный токен страницы: " + token, e);
+        }
+    }
+}
@@ -1,19 +1,62 @@
 package csi.business;
 
 import csi.internal.Price;
+import csi.internal.PriceBook;
+import csi.internal.PriceQuery;
 import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
-public interface PriceService {
+public interface PriceService extends AutoCloseable {
 
     void add(Price price);
 
+    MergeResult addAll(Collection<Price> prices);
+
+    MergeResult addAllInParallel(Collection<Price> prices);
+
+    CompletableFuture<MergeResult> submit(Price price);
+
     Price find(Long id);
 
     Collection<Price> findAll();
 
     List<Price> findByBeginAndEnd(LocalDateTime start, LocalDateTime end);
 
+    Price findEffective(String productCode, Integer number, LocalDateTime instant);
+
+    Stream<Price> findByQuery(PriceQuery query);
+
+    PricePage findPage(PriceQuery query, String pageToken, int pageSize);
+
+    Price findEffective(String productCode, Integer number, Integer depart, LocalDateTime instant);
+
+    List<Price> findByCodeNumberAndDepart(String productCode, Integer number, Integer depart);
+
+    /**
+     * Effective price of every product department at {@code instant}, in one pass over the repository.
+     */
+    PriceBook materializeAt(LocalDateTime instant);
+
     Price save(Price price);
+
+    /**
+     * Drops prices which ended by the horizon and joins adjacent prices of the same amount, product by product.
+     * A {@code null} horizon keeps all history.
+     */
+    CompactionResult compact(LocalDateTime horizon);
+
+    CompletableFuture<CompactionResult> compactInBackground(LocalDateTime horizon);
+
+    void addChangeListener(PriceChangeListener listener);
+
+    void removeChangeListener(PriceChangeListener listener);
+
+    /**
+     * Stops the threads the service started itself. Pools and repositories passed in stay with the caller.
+     */
+    @Override
+    void close();
 }
@@ -1,57 +1,234 @@
 package csi.business;
 
 import csi.internal.Price;
+import csi.internal.PriceBook;
+import csi.internal.PriceQuery;
+import csi.internal.PriceRepositories;
 import csi.internal.PriceRepository;
-import csi.internal.PriceRepositoryImpl;
+import csi.internal.ProductKey;
+import csi.metrics.InstrumentedPriceRepository;
+import csi.metrics.PriceMetric;
+import csi.metrics.PriceMetrics;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class PriceServiceImpl implements PriceService {
 
     private PriceRepository priceRepository;
+    private PriceMerger merger;
+    private PriceCompactor compactor = new PriceCompactor();
+    private final CompactionIndex compactionIndex = new CompactionIndex();
+    private ForkJoinPool importPool;
+    private boolean ownsImportPool;
+    private EffectivePriceCache effectivePrices;
+    private PriceMetrics metrics;
+    private volatile PriceIngestPipeline ingestPipeline;
+    private boolean closed;
+    private final List<PriceChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private volatile BiConsumer<PriceChangeListener, RuntimeException> listenerFailureHandler = PriceServiceImpl::reportUncaught;
 
     public PriceServiceImpl() {
-        this.priceRepository = new PriceRepositoryImpl();
+        this(PriceRepositories.configured());
+    }
+
+    /**
+     * A service with its own import pool of {@code importParallelism} workers, shut down by {@link #close}.
+     */
+    public PriceServiceImpl(int importParallelism) {
+        this(PriceRepositories.configured(), new ForkJoinPool(importParallelism));
+        this.ownsImportPool = true;
+    }
+
+    public PriceServiceImpl(PriceRepository priceRepository) {
+        this(priceRepository, ForkJoinPool.commonPool());
+    }
+
+    public PriceServiceImpl(PriceRepository priceRepository, ForkJoinPool importPool) {
+        this(priceRepository, importPool, new EffectivePriceCache(10_000));
+    }
+
+    public PriceServiceImpl(PriceRepository priceRepository, ForkJoinPool importPool, EffectivePriceCache effectivePrices) {
+        this(priceRepository, importPool, effectivePrices, PriceMetrics.configured());
+    }
+
+    public PriceServiceImpl(PriceRepository priceRepository, ForkJoinPool importPool, EffectivePriceCache effectivePrices,
+                            PriceMetrics metrics) {
+        this.priceRepository = metrics.isEnabled() ? new InstrumentedPriceRepository(priceRepository, metrics) : priceRepository;
+        this.merger = new PriceMerger(metrics);
+        this.importPool = importPool;
+        this.effectivePrices = effectivePrices;
+        this.metrics = metrics;
     }
 
     @Override
     public void add(Price newPrice) {
-        save(newPrice);
-        List<Price> filteredPrices = priceRepository.findByCodeAndNumber(newPrice.getProductCode(), newPrice.getNumber());
+        long started = metrics.start();
+        merge(ProductKey.of(newPrice), Collections.singletonList(newPrice));
+        sync();
+        metrics.recordLatency(PriceMetric.ADD, started);
+    }
 
-        if (filteredPrices.isEmpty()) {
-            return;
+    @Override
+    public MergeResult addAll(Collection<Price> prices) {
+        long started = metrics.start();
+        MergeResult result = new MergeResult();
+        groupByProduct(prices).forEach((key, newPrices) -> result.add(merge(key, newPrices)));
+        sync();
+        metrics.recordLatency(PriceMetric.ADD_ALL, started);
+        return result;
+    }
+
+    @Override
+    public MergeResult addAllInParallel(Collection<Price> prices) {
+        List<Map.Entry<ProductKey, List<Price>>> groups = new ArrayList<>(groupByProduct(prices).entrySet());
+        MergeResult result = importPool.invoke(new MergeTask(groups, group -> merge(group.getKey(), group.getValue())));
+        sync();
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<MergeResult> submit(Price newPrice) {
+        PriceIngestPipeline pipeline = ingestPipeline;
+        if (pipeline == null) {
+            synchronized (this) {
+                pipeline = ingestPipeline;
+                if (pipeline == null) {
+                    if (closed) {
+                        throw new IllegalStateException("Сервис цен закрыт");
+                    }
+                    pipeline = PriceIngestPipeline.configured(this::mergeEach);
+                    ingestPipeline = pipeline;
+                }
+            }
+        }
+        return pipeline.submit(newPrice);
+    }
+
+    /**
+     * A pipeline with its own workers feeding this service; the caller closes it when the feed ends.
+     */
+    public PriceIngestPipeline openPipeline(int workers, int queueCapacity) {
+        return new PriceIngestPipeline(this::mergeEach, workers, queueCapacity);
+    }
+
+    private Map<ProductKey, List<Price>> groupByProduct(Collection<Price> prices) {
+        return prices.stream()
+                .collect(Collectors.groupingBy(ProductKey::of, LinkedHashMap::new, Collectors.toList()));
+    }
+
+    private MergeResult merge(ProductKey key, List<Price> newPrices) {
+        return locked(key, () -> {
+            MergeResult result = new MergeResult();
+            WorkingTimeline timeline = load(key);
+            newPrices.forEach(newPrice -> merger.add(timeline, newPrice, result));
+            flush(key, timeline);
+            count(result);
+            return result;
+        });
+    }
+
+    /**
+     * Returns once the merges are durable, so the futures of the pipeline complete after the journal sync.
+     */
+    private List<MergeResult> mergeEach(ProductKey key, List<Price> newPrices) {
+        List<MergeResult> merged = locked(key, () -> {
+            List<MergeResult> results = new ArrayList<>(newPrices.size());
+            WorkingTimeline timeline = load(key);
+            for (Price newPrice : newPrices) {
+                MergeResult result = new MergeResult();
+                merger.add(timeline, newPrice, result);
+                results.add(result);
+            }
+            flush(key, timeline);
+            results.forEach(this::count);
+            return results;
+        });
+        sync();
+        return merged;
+    }
+
+    private void count(MergeResult result) {
+        if (metrics.isEnabled()) {
+            metrics.increment(PriceMetric.MERGES_INSERTED, result.getInserted());
+            metrics.increment(PriceMetric.MERGES_EXTENDED, result.getExtended());
+            metrics.increment(PriceMetric.MERGES_TRIMMED, result.getTrimmed());
+            metrics.increment(PriceMetric.MERGES_SPLIT, result.getSplit());
+            metrics.increment(PriceMetric.MERGES_DELETED, result.getDeleted());
         }
+    }
 
-        splitPriceWhichContainsNewPrice(newPrice, filteredPrices);
-        spreadOverlappedPrices(newPrice, filteredPrices);
-        removeContainedPrices(newPrice, filteredPrices);
+    private WorkingTimeline load(ProductKey key) {
+        WorkingTimeline timeline = new WorkingTimeline(
+                priceRepository.findByCodeNumberAndDepart(key.getProductCode(), key.getNumber(), key.getDepart()),
+                !changeListeners.isEmpty()
+        );
+        metrics.recordValue(PriceMetric.TIMELINE_LENGTH, timeline.size());
+        return timeline;
     }
 
-    private void spreadOverlappedPrices(Price newPrice, List<Price> filteredPrices) {
-        filteredPrices.stream()
-                .filter(price -> price.duration().overlapsAtStartBy(newPrice.duration()))
-                .findFirst()
-                .ifPresent(price -> save(price.withUpdatedDuration(newPrice.getEnd(), price.getEnd())));
+    /**
+     * A timeline which nothing was written to leaves the caches and the compaction index alone.
+     */
+    private void flush(ProductKey key, WorkingTimeline timeline) {
+        if (!timeline.hasWrites()) {
+            return;
+        }
+        PriceChangeSet changes = timeline.flushTo(priceRepository, key);
+        compactionIndex.written(key);
+        effectivePrices.invalidate(key);
+        effectivePrices.invalidate(key.product());
+        if (changes != null) {
+            changeListeners.forEach(listener -> notify(listener, changes));
+        }
+    }
 
-        filteredPrices.stream()
-                .filter(price -> price.duration().overlapsAtEndBy(newPrice.duration()))
-                .findFirst()
-                .ifPresent(price -> save(price.withUpdatedDuration(price.getBegin(), newPrice.getBegin())));
+    /**
+     * The prices are already stored, so a failing listener neither fails the merge nor keeps the change set
+     * from the other listeners; it is counted and reported to the failure handler instead.
+     */
+    private void notify(PriceChangeListener listener, PriceChangeSet changes) {
+        try {
+            listener.onChange(changes);
+        } catch (RuntimeException e) {
+            metrics.increment(PriceMetric.LISTENER_FAILURES, 1);
+            try {
+                listenerFailureHandler.accept(listener, e);
+            } catch (RuntimeException ignored) {
+                // the handler cannot fail the merge either
+            }
+        }
     }
 
-    private void removeContainedPrices(Price newPrice, List<Price> filteredPrices) {
-        filteredPrices.stream()
-                .filter(price -> price.duration().containsIn(newPrice.duration()))
-                .forEach(priceRepository::delete);
+    /**
+     * Without a journal there is nothing to wait for, and a sharded store would still fan the call out.
+     */
+    private void sync() {
+        if (priceRepository.isJournaled()) {
+            priceRepository.sync();
+        }
     }
 
-    private void splitPriceWhichContainsNewPrice(Price newPrice, List<Price> filteredPrices) {
-        filteredPrices.stream()
-                .filter(price -> price.duration().contains(newPrice.duration()))
-                .findFirst()
-                .ifPresent(price -> price.splitBy(newPrice).forEach(this::save));
+    private <T> T locked(ProductKey key, Supplier<T> action) {
+        Lock lock = priceRepository.lockFor(key);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -69,12 +246,161 @@ public class PriceServiceImpl implements PriceService {
         return priceRepository.findByBeginAndEnd(start, end);
     }
 
+    @Override
+    public List<Price> findByCodeNumberAndDepart(String productCode, Integer number, Integer depart) {
+        return priceRepository.findByCodeNumberAndDepart(productCode, number, depart);
+    }
+
+    @Override
+    public Stream<Price> findByQuery(PriceQuery query) {
+        return priceRepository.findByQuery(query);
+    }
+
+    @Override
+    public PriceBook materializeAt(LocalDateTime instant) {
+        return priceRepository.materializeAt(instant);
+    }
+
+    /**
+     * Reads one price past the page to learn whether another page follows.
+     */
+    @Override
+    public PricePage findPage(PriceQuery query, String pageToken, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным");
+        }
+        PriceQuery remaining = pageToken == null ? query : PricePage.resume(query, pageToken);
+        List<Price> prices = priceRepository.findByQuery(remaining)
+                .limit(pageSize + 1L)
+                .collect(Collectors.toList());
+        if (prices.size() <= pageSize) {
+            return new PricePage(prices, null);
+        }
+        List<Price> page = new ArrayList<>(prices.subList(0, pageSize));
+        return new PricePage(page, PricePage.tokenAfter(query, page.get(pageSize - 1)));
+    }
+
+    @Override
+    public Price findEffective(String productCode, Integer number, LocalDateTime instant) {
+        return effectivePrices.getWithin(new ProductKey(productCode, number), instant, () -> {
+            List<Price> active = priceRepository.findActiveAt(productCode, number, instant);
+            if (active.isEmpty()) {
+                return null;
+            }
+            Price effective = active.get(active.size() - 1);
+            LocalDateTime from = effective.getBegin();
+            LocalDateTime until = effective.getEnd();
+            for (Price other : priceRepository.findOverlapping(productCode, number, from, until)) {
+                for (LocalDateTime edge : new LocalDateTime[]{other.getBegin(), other.getEnd()}) {
+                    if (edge.isAfter(from) && !edge.isAfter(instant)) {
+                        from = edge;
+                    } else if (edge.isAfter(instant) && edge.isBefore(until)) {
+                        until = edge;
+                    }
+                }
+            }
+            return new EffectivePriceCache.Window(effective, from, until);
+        });
+    }
+
+    @Override
+    public Price findEffective(String productCode, Integer number, Integer depart, LocalDateTime instant) {
+        return effectivePrices.get(new ProductKey(productCode, number, depart), instant, () -> {
+            List<Price> active = priceRepository.findActiveAt(productCode, number, depart, instant);
+            return active.isEmpty() ? null : active.get(active.size() - 1);
+        });
+    }
+
+    /**
+     * The first compaction visits every product; later ones only the products written since
+     * and those with a price ending by the horizon, see {@link CompactionIndex}.
+     */
+    @Override
+    public CompactionResult compact(LocalDateTime horizon) {
+        long started = metrics.start();
+        CompactionResult result = new CompactionResult();
+        for (ProductKey key : compactionIndex.due(horizon, priceRepository::findProductKeys)) {
+            result.add(locked(key, () -> {
+                CompactionResult compacted = new CompactionResult();
+                WorkingTimeline timeline = load(key);
+                compactor.compact(timeline, horizon, compacted);
+                flush(key, timeline);
+                compactionIndex.compacted(key, timeline.earliestEnd());
+                return compacted;
+            }));
+        }
+        compactionIndex.indexed();
+        sync();
+        metrics.recordLatency(PriceMetric.COMPACT, started);
+        metrics.increment(PriceMetric.COMPACTION_RECLAIMED, result.getReclaimed());
+        return result;
+    }
+
+    /**
+     * Compacts on the import pool. Each product is locked only while it is compacted, so merges go on meanwhile.
+     */
+    @Override
+    public CompletableFuture<CompactionResult> compactInBackground(LocalDateTime horizon) {
+        return CompletableFuture.supplyAsync(() -> compact(horizon), importPool);
+    }
+
+    @Override
+    public void addChangeListener(PriceChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    @Override
+    public void removeChangeListener(PriceChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Receives what a listener threw; by default it goes to the uncaught exception handler of the merging thread.
+     */
+    public void setListenerFailureHandler(BiConsumer<PriceChangeListener, RuntimeException> listenerFailureHandler) {
+        this.listenerFailureHandler = listenerFailureHandler;
+    }
+
+    private static void reportUncaught(PriceChangeListener listener, RuntimeException failure) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, failure);
+    }
+
+    /**
+     * Merges the prices already submitted and stops the workers merging them, then shuts down the import pool
+     * if the service created it, letting merges and compactions already running finish.
+     */
+    @Override
+    public void close() {
+        PriceIngestPipeline pipeline;
+        synchronized (this) {
+            closed = true;
+            pipeline = ingestPipeline;
+        }
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        if (ownsImportPool) {
+            importPool.shutdown();
+        }
+    }
+
+    public EffectivePriceCache getEffectivePriceCache() {
+        return effectivePrices;
+    }
+
     @Override
     public Price save(Price newPrice) {
-        return priceRepository.findByCodeAndNumber(newPrice.getProductCode(), newPrice.getNumber()).stream()
-                .filter(price -> price.haveSameAmountWith(newPrice) && price.duration().overlaps(newPrice.duration()))
-                .findFirst()
-                .map(price -> priceRepository.save(price.mergedWith(newPrice)))
-                .orElseGet(() -> priceRepository.save(newPrice));
+        long started = metrics.start();
+        ProductKey key = ProductKey.of(newPrice);
+        Price previous = locked(key, () -> {
+            WorkingTimeline timeline = load(key);
+            Price saved = merger.save(timeline, newPrice);
+            flush(key, timeline);
+            return saved;
+        });
+        sync();
+        metrics.recordLatency(PriceMetric.SAVE, started);
+        return previous;
     }
 }
@@ -0,0 +1,103 @@
+package csi.business;
+
+import csi.internal.Price;
+import csi.internal.PriceRepository;
+import csi.internal.ProductKey;
+import csi.internal.Timeline;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory copy of one product's prices which the merge rules run against.
+ * Only the net result of all merges is written back to the repository.
+ */
+class WorkingTimeline {
+
+    private final Timeline timeline;
+    private final Map<Long, Price> saved = new LinkedHashMap<>();
+    private final Map<Long, Price> deleted = new LinkedHashMap<>();
+    private final List<PriceChange> changes;
+
+    WorkingTimeline(List<Price> prices, boolean recordChanges) {
+        this.timeline = new Timeline(prices);
+        this.changes = recordChanges ? new ArrayList<>() : null;
+    }
+
+    int size() {
+        return timeline.size();
+    }
+
+    /**
+     * Prices a merge of {@code price} can change, see {@link Timeline#touching}.
+     */
+    List<Price> touching(Price price) {
+        return timeline.touching(price.getBegin(), price.getEnd());
+    }
+
+    List<Price> chronological() {
+        return timeline.chronological();
+    }
+
+    /**
+     * End of the price which ends first, {@code null} for an empty timeline.
+     */
+    LocalDateTime earliestEnd() {
+        LocalDateTime earliest = null;
+        for (Price price : timeline.chronological()) {
+            if (earliest == null || price.getEnd().isBefore(earliest)) {
+                earliest = price.getEnd();
+            }
+        }
+        return earliest;
+    }
+
+    boolean hasWrites() {
+        return !saved.isEmpty() || !deleted.isEmpty();
+    }
+
+    Price save(Price price, PriceChange.Type type) {
+        deleted.remove(price.getId());
+        saved.put(price.getId(), price);
+        Price previous = timeline.put(price);
+        if (changes != null) {
+            changes.add(new PriceChange(type, previous, price));
+        }
+        return previous;
+    }
+
+    void delete(Price price) {
+        delete(price, PriceChange.Type.DELETED);
+    }
+
+    void delete(Price price, PriceChange.Type type) {
+        Price removed = timeline.remove(price.getId());
+        if (removed != null) {
+            saved.remove(price.getId());
+            deleted.put(price.getId(), removed);
+            if (changes != null) {
+                changes.add(new PriceChange(type, removed, null));
+            }
+        }
+    }
+
+    /**
+     * Writes the net result to the repository and returns the changes recorded since the last flush,
+     * or {@code null} when changes are not recorded or there were none.
+     */
+    PriceChangeSet flushTo(PriceRepository repository, ProductKey key) {
+        if (hasWrites()) {
+            repository.updateProduct(key, new ArrayList<>(saved.values()), new ArrayList<>(deleted.values()));
+        }
+        deleted.clear();
+        saved.clear();
+        if (changes == null || changes.isEmpty()) {
+            return null;
+        }
+        PriceChangeSet changeSet = new PriceChangeSet(key, new ArrayList<>(changes));
+        changes.clear();
+        return changeSet;
+    }
+}
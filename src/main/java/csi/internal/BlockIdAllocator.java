@@ -0,0 +1,61 @@
+package csi.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hi/lo allocation: a thread takes a block of ids from the shared counter and hands them out without
+ * writing shared state until the block runs out. Ids only follow creation order within one thread, so
+ * prices created by different threads are ordered by block, not by time. The merge rules pick among
+ * overlapping prices in id order, the only creation order the stores keep, so this allocator is not
+ * offered by {@link PriceIdAllocator#configured}: it is for measuring allocation alone, and imports stay
+ * on the shared counter of {@link SequentialIdAllocator} until the merge rules no longer need that order.
+ */
+public class BlockIdAllocator implements PriceIdAllocator {
+
+    private final AtomicLong nextBlock = new AtomicLong(1);
+    private final AtomicLong reserved = new AtomicLong();
+    private final int blockSize;
+    private final ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+
+    public BlockIdAllocator(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Размер блока идентификаторов должен быть положительным");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * The id is checked against the reserved one after it was taken, so an id at or below an id reserved
+     * before that check is never handed out, however the reservation interleaves with taking a block.
+     */
+    @Override
+    public long nextId() {
+        Block block = blocks.get();
+        while (true) {
+            if (block.next == block.limit) {
+                block.next = nextBlock.getAndAdd(blockSize);
+                block.limit = block.next + blockSize;
+            }
+            long id = block.next++;
+            if (id > reserved.get()) {
+                return id;
+            }
+            block.next = block.limit;
+        }
+    }
+
+    /**
+     * Moves the counter past {@code id}; a thread drops the block it holds once it reaches a reserved id.
+     */
+    @Override
+    public void reserveAbove(long id) {
+        reserved.accumulateAndGet(id, Math::max);
+        nextBlock.accumulateAndGet(id + 1, Math::max);
+    }
+
+    private static final class Block {
+
+        private long next;
+        private long limit;
+    }
+}
@@ -0,0 +1,111 @@
+package csi.internal;
+
+/**
+ * Allocation-light form of {@link Price}: begin and end packed by {@link EpochNanos}, amount in
+ * {@link PositiveAmount#getUnits units} of the default currency along with the scale it was given with.
+ * The stores select prices with its period checks, which work on the packed values only.
+ */
+public final class CompactPrice {
+
+    private final long   id;
+    private final String productCode;
+    private final int    number;
+    private final int    depart;
+    private final long   begin;
+    private final long   end;
+    private final long   amount;
+    private final int    amountScale;
+
+    public CompactPrice(long id, String productCode, int number, int depart, long begin, long end, long amount, int amountScale) {
+        this.id = id;
+        this.productCode = productCode;
+        this.number = number;
+        this.depart = depart;
+        this.begin = begin;
+        this.end = end;
+        this.amount = amount;
+        this.amountScale = amountScale;
+    }
+
+    public static CompactPrice of(Price price) {
+        return new CompactPrice(
+                price.getId(),
+                price.getProductCode(),
+                price.getNumber(),
+                price.getDepart(),
+                EpochNanos.of(price.getBegin()),
+                EpochNanos.of(price.getEnd()),
+                toUnits(price.getAmount()),
+                price.getAmount().getScale()
+        );
+    }
+
+    public Price toPrice() {
+        return new Price(
+                id,
+                productCode,
+                number,
+                depart,
+                EpochNanos.toDateTime(begin),
+                EpochNanos.toDateTime(end),
+                PositiveAmount.ofUnits(amount, amountScale)
+        );
+    }
+
+    /**
+     * Units of an amount in {@link PositiveAmount#DEFAULT_CURRENCY}, the only currency compact prices keep.
+     */
+    public static long toUnits(PositiveAmount amount) {
+        if (amount.getCurrency() != PositiveAmount.DEFAULT_CURRENCY) {
+            throw new IllegalArgumentException("Цены хранятся только в " + PositiveAmount.DEFAULT_CURRENCY + ": " + amount);
+        }
+        return amount.getUnits();
+    }
+
+    /**
+     * Whether a packed period {@code [begin, end)} covers a packed instant.
+     */
+    public static boolean isActiveAt(long begin, long end, long instant) {
+        return begin <= instant && instant < end;
+    }
+
+    /**
+     * Whether packed periods {@code [begin, end)} and {@code [from, to)} share an instant, the way lookups
+     * select prices; the merge rules, which also join periods that only touch, are in {@link Duration}.
+     */
+    public static boolean intersects(long begin, long end, long from, long to) {
+        return begin < to && end > from;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getProductCode() {
+        return productCode;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public int getDepart() {
+        return depart;
+    }
+
+    public long getBegin() {
+        return begin;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public int getAmountScale() {
+        return amountScale;
+    }
+}
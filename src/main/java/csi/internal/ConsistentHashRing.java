@@ -0,0 +1,57 @@
+package csi.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Places every node at many points of a 64-bit ring; a key belongs to the first node point at or after
+ * its hash. Adding a node only takes over the keys between its points and their predecessors,
+ * about {@code 1 / nodes} of all keys. Not thread safe.
+ */
+final class ConsistentHashRing<T> {
+
+    private final int pointsPerNode;
+    private final NavigableMap<Long, T> points = new TreeMap<>();
+
+    ConsistentHashRing(int pointsPerNode) {
+        this.pointsPerNode = pointsPerNode;
+    }
+
+    ConsistentHashRing(ConsistentHashRing<T> ring) {
+        this.pointsPerNode = ring.pointsPerNode;
+        this.points.putAll(ring.points);
+    }
+
+    void add(String name, T node) {
+        for (int i = 0; i < pointsPerNode; i++) {
+            points.put(hash(name + "#" + i), node);
+        }
+    }
+
+    T nodeFor(ProductKey key) {
+        if (points.isEmpty()) {
+            throw new IllegalStateException("Нет ни одного хранилища цен");
+        }
+        Map.Entry<Long, T> point = points.ceilingEntry(hash(key.getProductCode() + "#" + key.getNumber()));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     * FNV-1a over UTF-8 followed by the MurmurHash3 finalizer, stable across JVMs.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe53ed893L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
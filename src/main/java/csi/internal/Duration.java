@@ -2,6 +2,10 @@ package csi.internal;
 
 import java.time.LocalDateTime;
 
+/**
+ * Period of a price. The static checks take the ends of both periods, so the merge rules compare prices
+ * without building a {@code Duration} for either of them.
+ */
 public class Duration {
 
     private final LocalDateTime from;
@@ -12,20 +16,36 @@ public class Duration {
         this.to = to;
     }
 
+    public static boolean contains(LocalDateTime from, LocalDateTime to, LocalDateTime otherFrom, LocalDateTime otherTo) {
+        return from.isBefore(otherFrom) && to.isAfter(otherTo);
+    }
+
+    public static boolean overlapsAtStartBy(LocalDateTime from, LocalDateTime to, LocalDateTime otherFrom, LocalDateTime otherTo) {
+        return !from.isAfter(otherTo) && otherFrom.isBefore(from);
+    }
+
+    public static boolean overlapsAtEndBy(LocalDateTime from, LocalDateTime to, LocalDateTime otherFrom, LocalDateTime otherTo) {
+        return !to.isBefore(otherFrom) && otherTo.isAfter(to);
+    }
+
+    public static boolean overlaps(LocalDateTime from, LocalDateTime to, LocalDateTime otherFrom, LocalDateTime otherTo) {
+        return overlapsAtStartBy(from, to, otherFrom, otherTo) || overlapsAtEndBy(from, to, otherFrom, otherTo);
+    }
+
     public boolean contains(Duration duration) {
-        return this.from.isBefore(duration.from) && this.to.isAfter(duration.to);
+        return contains(from, to, duration.from, duration.to);
     }
 
     public boolean overlapsAtStartBy(Duration duration) {
-        return (this.from.isBefore(duration.to) || this.from.isEqual(duration.to)) && duration.from.isBefore(this.from);
+        return overlapsAtStartBy(from, to, duration.from, duration.to);
     }
 
     public boolean overlapsAtEndBy(Duration duration) {
-        return (this.to.isAfter(duration.from) || this.to.isEqual(duration.from)) && duration.to.isAfter(this.to);
+        return overlapsAtEndBy(from, to, duration.from, duration.to);
     }
 
     public boolean overlaps(Duration duration) {
-        return this.overlapsAtStartBy(duration) || this.overlapsAtEndBy(duration);
+        return overlaps(from, to, duration.from, duration.to);
     }
 
     public boolean containsIn(Duration duration) {
@@ -0,0 +1,122 @@
+package csi.internal;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Packs a {@link LocalDateTime} into a long which orders like the date-time. Between 1843 and 2096 the long
+ * is the exact number of nanoseconds since 1970-01-01T00:00. Further out it counts microseconds, which reaches
+ * about 146000 years either way, and {@link LocalDateTime#MIN} and {@link LocalDateTime#MAX} get the smallest
+ * and the largest long, so open-ended periods like {@code 9999-12-31} fit as well. A difference of two packed
+ * values is never more than the nanoseconds between the date-times.
+ */
+public final class EpochNanos {
+
+    public static final long MIN = Long.MIN_VALUE;
+    public static final long MAX = Long.MAX_VALUE;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long MICROS_PER_SECOND = 1_000_000L;
+    private static final int NANOS_PER_MICRO = 1_000;
+    private static final long EXACT_SECONDS = 4_000_000_000L;
+    private static final long EXACT = EXACT_SECONDS * NANOS_PER_SECOND;
+    private static final long EXACT_MICROS = EXACT_SECONDS * MICROS_PER_SECOND;
+
+    private static final int EXACTLY = 0;
+    private static final int FLOOR = -1;
+    private static final int CEILING = 1;
+
+    private EpochNanos() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the date-time is out of the range or, outside 1843 to 2096,
+     *                                  has a fraction of a microsecond
+     */
+    public static long of(LocalDateTime dateTime) {
+        return pack(dateTime, EXACTLY);
+    }
+
+    /**
+     * The largest packed value not after {@code dateTime}, for lookups: a stored value is before or at
+     * the date-time exactly when it is at most the floor. Never fails.
+     */
+    public static long floor(LocalDateTime dateTime) {
+        return pack(dateTime, FLOOR);
+    }
+
+    /**
+     * The smallest packed value not before {@code dateTime}, for the exclusive end of a looked up period.
+     */
+    public static long ceiling(LocalDateTime dateTime) {
+        return pack(dateTime, CEILING);
+    }
+
+    /**
+     * Whether {@link #of} packs the date-time without failing.
+     */
+    public static boolean isExact(LocalDateTime dateTime) {
+        long floor = pack(dateTime, FLOOR);
+        return floor == pack(dateTime, CEILING) && floor != MIN + 1 && floor != MAX - 1;
+    }
+
+    public static LocalDateTime toDateTime(long epochNanos) {
+        if (epochNanos == MIN) {
+            return LocalDateTime.MIN;
+        }
+        if (epochNanos == MAX) {
+            return LocalDateTime.MAX;
+        }
+        if (epochNanos >= -EXACT && epochNanos < EXACT) {
+            return LocalDateTime.ofEpochSecond(
+                    Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+                    (int) Math.floorMod(epochNanos, NANOS_PER_SECOND),
+                    ZoneOffset.UTC
+            );
+        }
+        long micros = epochNanos >= EXACT ? epochNanos - EXACT + EXACT_MICROS : epochNanos + EXACT - EXACT_MICROS;
+        return LocalDateTime.ofEpochSecond(
+                Math.floorDiv(micros, MICROS_PER_SECOND),
+                (int) Math.floorMod(micros, MICROS_PER_SECOND) * NANOS_PER_MICRO,
+                ZoneOffset.UTC
+        );
+    }
+
+    /**
+     * Out of the range a lookup rounds to just inside the sentinels, so it still compares right
+     * with every storable value.
+     */
+    private static long pack(LocalDateTime dateTime, int rounding) {
+        if (dateTime.equals(LocalDateTime.MIN)) {
+            return MIN;
+        }
+        if (dateTime.equals(LocalDateTime.MAX)) {
+            return MAX;
+        }
+        long seconds = dateTime.toEpochSecond(ZoneOffset.UTC);
+        int nano = dateTime.getNano();
+        if (seconds >= -EXACT_SECONDS && seconds < EXACT_SECONDS) {
+            return seconds * NANOS_PER_SECOND + nano;
+        }
+        int micro = nano / NANOS_PER_MICRO;
+        if (nano % NANOS_PER_MICRO != 0) {
+            if (rounding == EXACTLY) {
+                throw new IllegalArgumentException("Дата хранится с точностью до микросекунды: " + dateTime);
+            }
+            micro += rounding == CEILING ? 1 : 0;
+        }
+        try {
+            long micros = Math.addExact(Math.multiplyExact(seconds, MICROS_PER_SECOND), micro);
+            long packed = seconds > 0 ? Math.addExact(EXACT, micros - EXACT_MICROS) : Math.addExact(-EXACT, micros + EXACT_MICROS);
+            if (packed > MIN + 1 && packed < MAX - 1) {
+                return packed;
+            }
+        } catch (ArithmeticException e) {
+            // out of the range, see below
+        }
+        if (rounding == EXACTLY) {
+            throw new IllegalArgumentException("Дата вне поддерживаемого диапазона: " + dateTime);
+        }
+        return seconds > 0 ? MAX - 1 : MIN + 1;
+    }
+}
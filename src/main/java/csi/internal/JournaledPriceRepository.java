@@ -0,0 +1,404 @@
+package csi.internal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static csi.internal.PriceWire.readKey;
+import static csi.internal.PriceWire.readPrices;
+import static csi.internal.PriceWire.writeKey;
+import static csi.internal.PriceWire.writePrices;
+
+/**
+ * Write-ahead journal in front of another repository. Every {@link #updateProduct}, that is one whole merge,
+ * becomes one journal entry (length, CRC32, key, saved and deleted prices) before it reaches the repository.
+ * A {@linkplain PriceRepository#isPersistent persistent} repository only gets the merge once its entry is
+ * on disk, so it never keeps a change the journal could not replay.
+ * <p>
+ * Entries are buffered and written by {@link #sync}, which returns once everything appended before the call
+ * is on disk. Concurrent callers share one fsync: while it runs, their entries pile up and the next caller
+ * to find no fsync in progress writes and forces all of them. Once the journal grows past
+ * {@value #CHECKPOINT_PROPERTY} bytes (64 MiB by default), {@link #sync} also takes a {@link #checkpoint};
+ * a failed one goes to the thread's uncaught exception handler and is retried once the journal grew
+ * by as much again, since the changes it would have covered are safe in the journal already.
+ * <p>
+ * Opening the directory restores the last {@link #checkpoint} snapshot, if any, into the repository and
+ * replays the journal after it, dropping an entry torn by a crash at its end.
+ */
+public class JournaledPriceRepository implements PriceRepository, AutoCloseable {
+
+    private static final String JOURNAL = "journal.log";
+    private static final String SNAPSHOT = "prices.snapshot";
+    private static final int WRITE_THRESHOLD = 1 << 20;
+
+    public static final String CHECKPOINT_PROPERTY = "csi.price.journal.checkpoint";
+
+    private final PriceRepository delegate;
+    private final Path directory;
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private final Object appendLock = new Object();
+    private final Lock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final FileChannel journal;
+    private final long checkpointBytes;
+    private final AtomicBoolean checkpointing = new AtomicBoolean();
+    private volatile long appended;
+    private volatile long journalStart;
+    private volatile long checkpointAt;
+    private long durable;
+    private boolean syncing;
+
+    public JournaledPriceRepository(PriceRepository delegate, Path directory) {
+        this(delegate, directory, Long.getLong(CHECKPOINT_PROPERTY, 64L << 20));
+    }
+
+    /**
+     * @param checkpointBytes journal length after which {@link #sync} takes a checkpoint
+     */
+    public JournaledPriceRepository(PriceRepository delegate, Path directory, long checkpointBytes) {
+        this.delegate = delegate;
+        this.directory = directory;
+        this.checkpointBytes = checkpointBytes;
+        this.checkpointAt = checkpointBytes;
+        try {
+            Files.createDirectories(directory);
+            Path snapshot = directory.resolve(SNAPSHOT);
+            if (Files.exists(snapshot)) {
+                PriceSnapshots.read(snapshot, delegate);
+            }
+            this.journal = FileChannel.open(directory.resolve(JOURNAL), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long valid = replay();
+            journal.truncate(valid);
+            journal.position(valid);
+            journalStart = -valid;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Collection<Price> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public Price findOne(Long id) {
+        return delegate.findOne(id);
+    }
+
+    @Override
+    public Price save(Price price) {
+        Price previous = delegate.findOne(price.getId());
+        updateProduct(ProductKey.of(price), Collections.singletonList(price), Collections.emptyList());
+        return previous;
+    }
+
+    @Override
+    public void delete(Price price) {
+        updateProduct(ProductKey.of(price), Collections.emptyList(), Collections.singletonList(price));
+    }
+
+    @Override
+    public void updateProduct(ProductKey key, Collection<Price> saved, Collection<Price> deleted) {
+        byte[] entry = encode(key, saved, deleted);
+        checkpointLock.readLock().lock();
+        try {
+            long position = append(entry);
+            if (delegate.isPersistent()) {
+                syncTo(position);
+            }
+            delegate.updateProduct(key, saved, deleted);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Empties the repository and drops the snapshot and the journal.
+     */
+    @Override
+    public void truncate() {
+        checkpointLock.writeLock().lock();
+        try {
+            syncTo(appended);
+            delegate.truncate();
+            Files.deleteIfExists(directory.resolve(SNAPSHOT));
+            resetJournal();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until every change appended before the call is on disk.
+     */
+    @Override
+    public void sync() {
+        syncTo(appended);
+        long length = appended - journalStart;
+        if (length >= checkpointAt && checkpointing.compareAndSet(false, true)) {
+            try {
+                checkpoint();
+                checkpointAt = checkpointBytes;
+            } catch (RuntimeException e) {
+                checkpointAt = length + checkpointBytes;
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            } finally {
+                checkpointing.set(false);
+            }
+        }
+    }
+
+    @Override
+    public boolean isJournaled() {
+        return true;
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    /**
+     * Writes a snapshot of the repository and starts an empty journal. Changes wait while it runs.
+     * A crash between the two replays the old journal over the new snapshot, which ends in the same state.
+     */
+    public void checkpoint() {
+        checkpointLock.writeLock().lock();
+        try {
+            syncTo(appended);
+            Path writing = directory.resolve(SNAPSHOT + ".writing");
+            PriceSnapshots.write(delegate, writing);
+            try (FileChannel snapshot = FileChannel.open(writing, StandardOpenOption.WRITE)) {
+                snapshot.force(true);
+            }
+            Files.move(writing, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            resetJournal();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Price> findByBeginAndEnd(LocalDateTime start, LocalDateTime end) {
+        return delegate.findByBeginAndEnd(start, end);
+    }
+
+    @Override
+    public List<Price> findByCodeAndNumber(String code, Integer number) {
+        return delegate.findByCodeAndNumber(code, number);
+    }
+
+    @Override
+    public List<Price> findByCodeNumberAndDepart(String code, Integer number, Integer depart) {
+        return delegate.findByCodeNumberAndDepart(code, number, depart);
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, LocalDateTime instant) {
+        return delegate.findActiveAt(code, number, instant);
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, Integer depart, LocalDateTime instant) {
+        return delegate.findActiveAt(code, number, depart, instant);
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, LocalDateTime from, LocalDateTime to) {
+        return delegate.findOverlapping(code, number, from, to);
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, Integer depart, LocalDateTime from, LocalDateTime to) {
+        return delegate.findOverlapping(code, number, depart, from, to);
+    }
+
+    @Override
+    public Stream<Price> findByQuery(PriceQuery query) {
+        return delegate.findByQuery(query);
+    }
+
+    @Override
+    public Set<ProductKey> findProductKeys() {
+        return delegate.findProductKeys();
+    }
+
+    @Override
+    public PriceBook materializeAt(LocalDateTime instant) {
+        return delegate.materializeAt(instant);
+    }
+
+    @Override
+    public Lock lockFor(ProductKey key) {
+        return delegate.lockFor(key);
+    }
+
+    @Override
+    public void close() throws IOException {
+        syncTo(appended);
+        journal.close();
+    }
+
+    private static byte[] encode(ProductKey key, Collection<Price> saved, Collection<Price> deleted) {
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(entry);
+            out.writeInt(0);
+            out.writeInt(0);
+            writeKey(out, key);
+            writePrices(out, saved);
+            writePrices(out, deleted);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] bytes = entry.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 8, bytes.length - 8);
+        ByteBuffer.wrap(bytes).putInt(0, bytes.length - 8).putInt(4, (int) crc.getValue());
+        return bytes;
+    }
+
+    private void syncTo(long position) {
+        syncLock.lock();
+        try {
+            while (durable < position) {
+                if (syncing) {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+                syncing = true;
+                long target = -1;
+                syncLock.unlock();
+                try {
+                    target = writePending(true);
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    durable = Math.max(durable, target);
+                    synced.signalAll();
+                }
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many bytes were appended up to and including the entry.
+     */
+    private long append(byte[] entry) {
+        synchronized (appendLock) {
+            pending.write(entry, 0, entry.length);
+            appended += entry.length;
+            if (pending.size() >= WRITE_THRESHOLD) {
+                writePending(false);
+            }
+            return appended;
+        }
+    }
+
+    /**
+     * Writes the buffered entries in append order and returns how many bytes were appended by then.
+     */
+    private long writePending(boolean force) {
+        try {
+            long target;
+            synchronized (appendLock) {
+                target = appended;
+                pending.writeTo(Channels.newOutputStream(journal));
+                pending.reset();
+            }
+            if (force) {
+                journal.force(false);
+            }
+            return target;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void resetJournal() throws IOException {
+        synchronized (appendLock) {
+            pending.reset();
+            journalStart = appended;
+            journal.truncate(0);
+            journal.position(0);
+            journal.force(true);
+        }
+    }
+
+    /**
+     * Applies the valid entries and returns the length of the journal they take.
+     */
+    private long replay() throws IOException {
+        long valid = 0;
+        long maxId = 0;
+        InputStream file = Channels.newInputStream(journal.position(0));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+        while (true) {
+            byte[] body;
+            int checksum;
+            try {
+                int length = in.readInt();
+                checksum = in.readInt();
+                if (length < 0 || valid + 8 + length > journal.size()) {
+                    break;
+                }
+                body = new byte[length];
+                in.readFully(body);
+            } catch (EOFException e) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            DataInputStream entry = new DataInputStream(new ByteArrayInputStream(body));
+            ProductKey key = readKey(entry);
+            List<Price> saved = readPrices(entry);
+            List<Price> deleted = readPrices(entry);
+            delegate.updateProduct(key, saved, deleted);
+            for (Price price : saved) {
+                maxId = Math.max(maxId, price.getId());
+            }
+            valid += 8 + body.length;
+        }
+        Price.reserveIds(maxId);
+        return valid;
+    }
+}
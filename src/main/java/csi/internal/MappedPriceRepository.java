@@ -0,0 +1,648 @@
+package csi.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Persistent repository on two append-only files in one directory.
+ * <p>
+ * {@code prices.log} is memory-mapped and holds fixed-size save and delete records in {@link CompactPrice} encoding,
+ * {@code keys.log} holds the product codes and numbers the records refer to by ordinal; a record's department
+ * completes its key. Every department of a product is chained separately in memory. A record is in the page cache
+ * once {@link #save} or {@link #delete} returns, so it survives the process being killed; with {@code force}
+ * every record is also flushed to the disk. Opening scans the primitive fields of the log to rebuild
+ * the indexes, prices are only materialized by queries. The log is rewritten with live records only once
+ * superseded ones outnumber them. New prices get ids above the highest id in the log.
+ */
+public class MappedPriceRepository implements PriceRepository, AutoCloseable {
+
+    private static final long MAGIC = 0x4353495052494345L;
+    private static final int VERSION = 2;
+    private static final int RECORD = 48;
+    private static final int RECORDS_PER_SEGMENT = 1 << 20;
+    private static final long SEGMENT = (long) RECORD * RECORDS_PER_SEGMENT;
+    private static final int COMPACTION_THRESHOLD = 1 << 16;
+
+    private static final int SAVE = 1;
+    private static final int DELETE = 2;
+
+    private static final int CHECKSUM = 0;
+    private static final int OP = 4;
+    private static final int ID = 8;
+    private static final int KEY = 16;
+    private static final int DEPART = 20;
+    private static final int BEGIN = 24;
+    private static final int END = 32;
+    private static final int AMOUNT = 40;
+
+    private static final int NO_RECORD = -1;
+    private static final Comparator<Price> BY_ID = Comparator.comparing(Price::getId);
+    private static final Comparator<Price> BY_BEGIN = Comparator.comparing(Price::getBegin).thenComparing(Price::getId);
+
+    private final Path directory;
+    private final Path pricesFile;
+    private final Path keysFile;
+    private final boolean force;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final StripedLocks mergeLocks = new StripedLocks(1024);
+
+    private FileChannel prices;
+    private FileChannel keyLog;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final Map<ProductKey, Integer> keyOrdinals = new HashMap<>();
+    private final List<ProductKey> keys = new ArrayList<>();
+    private final Map<ProductKey, Integer> chainOrdinals = new HashMap<>();
+    private final Map<ProductKey, List<Integer>> departments = new HashMap<>();
+    private int[] heads = new int[16];
+    private int[] next = new int[1024];
+    private int[] chains = new int[1024];
+    private LongIntMap recordsById = new LongIntMap(1024);
+    private BitSet live = new BitSet();
+    private int records;
+
+    public MappedPriceRepository(Path directory) {
+        this(directory, false);
+    }
+
+    public MappedPriceRepository(Path directory, boolean force) {
+        this.directory = directory;
+        this.pricesFile = directory.resolve("prices.log");
+        this.keysFile = directory.resolve("keys.log");
+        this.force = force;
+        try {
+            Files.createDirectories(directory);
+            Files.deleteIfExists(directory.resolve("prices.log.compacting"));
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Collection<Price> findAll() {
+        return read(() -> scan(record -> true));
+    }
+
+    @Override
+    public Price findOne(Long id) {
+        return read(() -> {
+            int record = recordsById.get(id, NO_RECORD);
+            return record == NO_RECORD ? null : toPrice(record);
+        });
+    }
+
+    @Override
+    public Price save(Price price) {
+        CompactPrice compact = CompactPrice.of(price);
+        return write(() -> {
+            Price previous = store(compact, ProductKey.of(price));
+            compactIfNeeded();
+            return previous;
+        });
+    }
+
+    @Override
+    public void delete(Price price) {
+        write(() -> {
+            if (remove(price.getId())) {
+                compactIfNeeded();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Encodes every saved price before the first record is appended, so a price the record cannot keep
+     * rejects the whole merge instead of leaving its deletes in the log.
+     */
+    @Override
+    public void updateProduct(ProductKey key, Collection<Price> saved, Collection<Price> deleted) {
+        List<CompactPrice> compact = new ArrayList<>(saved.size());
+        List<ProductKey> productKeys = new ArrayList<>(saved.size());
+        for (Price price : saved) {
+            compact.add(CompactPrice.of(price));
+            productKeys.add(ProductKey.of(price));
+        }
+        write(() -> {
+            deleted.forEach(price -> remove(price.getId()));
+            for (int i = 0; i < compact.size(); i++) {
+                store(compact.get(i), productKeys.get(i));
+            }
+            compactIfNeeded();
+            return null;
+        });
+    }
+
+    @Override
+    public void truncate() {
+        write(() -> {
+            try {
+                close();
+                Files.deleteIfExists(pricesFile);
+                Files.deleteIfExists(keysFile);
+                open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<Price> findByBeginAndEnd(LocalDateTime start, LocalDateTime end) {
+        if (!EpochNanos.isExact(start) || !EpochNanos.isExact(end)) {
+            return Collections.emptyList();
+        }
+        long begin = EpochNanos.of(start);
+        long finish = EpochNanos.of(end);
+        return read(() -> scan(record -> getLong(record, BEGIN) == begin && getLong(record, END) == finish));
+    }
+
+    @Override
+    public List<Price> findByCodeAndNumber(String code, Integer number) {
+        return findByKey(new ProductKey(code, number));
+    }
+
+    @Override
+    public List<Price> findByCodeNumberAndDepart(String code, Integer number, Integer depart) {
+        return findByKey(new ProductKey(code, number, depart));
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, LocalDateTime instant) {
+        return findActiveAt(new ProductKey(code, number), instant);
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, Integer depart, LocalDateTime instant) {
+        return findActiveAt(new ProductKey(code, number, depart), instant);
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, LocalDateTime from, LocalDateTime to) {
+        return findOverlapping(new ProductKey(code, number), from, to);
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, Integer depart, LocalDateTime from, LocalDateTime to) {
+        return findOverlapping(new ProductKey(code, number, depart), from, to);
+    }
+
+    @Override
+    public Set<ProductKey> findProductKeys() {
+        return read(() -> {
+            Set<ProductKey> found = new HashSet<>();
+            chainOrdinals.forEach((key, chain) -> {
+                if (heads[chain] != NO_RECORD) {
+                    found.add(key);
+                }
+            });
+            return found;
+        });
+    }
+
+    /**
+     * Walks the record chains of all department timelines in parallel, reading begin and end fields only.
+     */
+    @Override
+    public PriceBook materializeAt(LocalDateTime instant) {
+        long at = EpochNanos.floor(instant);
+        return read(() -> {
+            ProductKey[] found = new ProductKey[chainOrdinals.size()];
+            chainOrdinals.forEach((key, chain) -> found[chain] = key);
+            long[] ids = new long[found.length];
+            long[] amounts = new long[found.length];
+            IntStream.range(0, found.length).parallel().forEach(chain -> {
+                int effective = NO_RECORD;
+                for (int record = heads[chain]; record != NO_RECORD; record = next[record]) {
+                    long begin = getLong(record, BEGIN);
+                    if (CompactPrice.isActiveAt(begin, getLong(record, END), at) && (effective == NO_RECORD
+                            || begin > getLong(effective, BEGIN)
+                            || begin == getLong(effective, BEGIN) && getLong(record, ID) > getLong(effective, ID))) {
+                        effective = record;
+                    }
+                }
+                ids[chain] = effective == NO_RECORD ? PriceBook.NO_PRICE : getLong(effective, ID);
+                amounts[chain] = effective == NO_RECORD ? 0 : getLong(effective, AMOUNT);
+            });
+            return PriceBook.of(instant, found, ids, amounts);
+        });
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    @Override
+    public Lock lockFor(ProductKey key) {
+        return mergeLocks.get(key);
+    }
+
+    /**
+     * Rewrites the log with live records only and atomically replaces the old one.
+     */
+    public void compact() {
+        write(() -> {
+            try {
+                Path compacting = directory.resolve("prices.log.compacting");
+                try (FileChannel target = FileChannel.open(compacting,
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    target.write(header());
+                    ByteBuffer buffer = ByteBuffer.allocate(RECORD * 1024);
+                    for (int record = live.nextSetBit(0); record >= 0; record = live.nextSetBit(record + 1)) {
+                        ByteBuffer source = segment(record).duplicate();
+                        int offset = offset(record);
+                        ((Buffer) source).limit(offset + RECORD).position(offset);
+                        if (buffer.remaining() < RECORD) {
+                            drain(buffer, target);
+                        }
+                        buffer.put(source);
+                    }
+                    drain(buffer, target);
+                    target.force(true);
+                }
+                close();
+                Files.move(compacting, pricesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments.clear();
+        if (prices != null) {
+            prices.close();
+        }
+        if (keyLog != null) {
+            keyLog.close();
+        }
+    }
+
+    private void open() throws IOException {
+        keyOrdinals.clear();
+        keys.clear();
+        chainOrdinals.clear();
+        departments.clear();
+        heads = new int[16];
+        recordsById = new LongIntMap(1024);
+        live = new BitSet();
+        records = 0;
+
+        keyLog = FileChannel.open(keysFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        readKeys();
+        prices = FileChannel.open(pricesFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (prices.size() == 0) {
+            prices.write(header(), 0);
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD);
+        prices.read(header, 0);
+        if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+            throw new IllegalStateException("Неизвестный формат хранилища цен: " + pricesFile);
+        }
+        mapUpTo(Math.max(0, (int) (prices.size() / RECORD) - 2));
+        long maxId = 0;
+        while (isValid(records)) {
+            maxId = Math.max(maxId, getLong(records, ID));
+            apply(records);
+        }
+        Price.reserveIds(maxId);
+    }
+
+    private void readKeys() throws IOException {
+        ByteBuffer all = ByteBuffer.allocate((int) keyLog.size());
+        keyLog.read(all, 0);
+        ((Buffer) all).flip();
+        int valid = 0;
+        while (all.remaining() >= 12) {
+            int checksum = all.getInt();
+            int number = all.getInt();
+            int length = all.getInt();
+            if (length < 0 || length > all.remaining()) {
+                break;
+            }
+            byte[] code = new byte[length];
+            all.get(code);
+            if (checksum != Arrays.hashCode(code) * 31 + number) {
+                break;
+            }
+            addKey(new ProductKey(new String(code, StandardCharsets.UTF_8), number));
+            valid = all.position();
+        }
+        keyLog.truncate(valid);
+        keyLog.position(valid);
+    }
+
+    private Price store(CompactPrice compact, ProductKey product) {
+        int key = ordinalOf(product.product());
+        int previous = recordsById.get(compact.getId(), NO_RECORD);
+        Price previousPrice = previous == NO_RECORD ? null : toPrice(previous);
+        apply(append(SAVE | compact.getAmountScale() << 8, compact.getId(), key, compact.getDepart(),
+                compact.getBegin(), compact.getEnd(), compact.getAmount()));
+        return previousPrice;
+    }
+
+    private boolean remove(long id) {
+        if (recordsById.get(id, NO_RECORD) == NO_RECORD) {
+            return false;
+        }
+        apply(append(DELETE, id, 0, 0, 0, 0, 0));
+        return true;
+    }
+
+    private int ordinalOf(ProductKey key) {
+        Integer ordinal = keyOrdinals.get(key);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        byte[] code = key.getProductCode().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(12 + code.length);
+        entry.putInt(Arrays.hashCode(code) * 31 + key.getNumber()).putInt(key.getNumber()).putInt(code.length).put(code);
+        ((Buffer) entry).flip();
+        try {
+            while (entry.hasRemaining()) {
+                keyLog.write(entry);
+            }
+            if (force) {
+                keyLog.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return addKey(key);
+    }
+
+    private int addKey(ProductKey key) {
+        int ordinal = keys.size();
+        keys.add(key);
+        keyOrdinals.put(key, ordinal);
+        return ordinal;
+    }
+
+    private int chainOf(ProductKey key) {
+        Integer chain = chainOrdinals.get(key);
+        if (chain != null) {
+            return chain;
+        }
+        int newChain = chainOrdinals.size();
+        chainOrdinals.put(key, newChain);
+        departments.computeIfAbsent(key.product(), product -> new ArrayList<>()).add(newChain);
+        if (newChain == heads.length) {
+            heads = Arrays.copyOf(heads, heads.length * 2);
+        }
+        heads[newChain] = NO_RECORD;
+        return newChain;
+    }
+
+    private int append(int op, long id, int key, int depart, long begin, long end, long amount) {
+        int record = records;
+        mapUpTo(record);
+        MappedByteBuffer segment = segment(record);
+        int offset = offset(record);
+        segment.putLong(offset + ID, id);
+        segment.putInt(offset + KEY, key);
+        segment.putInt(offset + DEPART, depart);
+        segment.putLong(offset + BEGIN, begin);
+        segment.putLong(offset + END, end);
+        segment.putLong(offset + AMOUNT, amount);
+        segment.putInt(offset + OP, op);
+        segment.putInt(offset + CHECKSUM, checksum(op, id, key, depart, begin, end, amount));
+        if (force) {
+            segment.force();
+        }
+        return record;
+    }
+
+    private void apply(int record) {
+        long id = getLong(record, ID);
+        int previous = recordsById.get(id, NO_RECORD);
+        if (previous != NO_RECORD) {
+            unlink(previous);
+            live.clear(previous);
+            recordsById.remove(id);
+        }
+        if (op(record) == SAVE) {
+            recordsById.put(id, record);
+            live.set(record);
+            ProductKey product = keys.get(getInt(record, KEY));
+            link(record, chainOf(new ProductKey(product.getProductCode(), product.getNumber(), getInt(record, DEPART))));
+        }
+        records = record + 1;
+    }
+
+    private boolean isValid(int record) {
+        if ((long) (record + 1) * RECORD >= (long) segments.size() * SEGMENT) {
+            return false;
+        }
+        int op = op(record);
+        return (op == SAVE || op == DELETE) && getInt(record, CHECKSUM) == checksum(getInt(record, OP),
+                getLong(record, ID), getInt(record, KEY), getInt(record, DEPART),
+                getLong(record, BEGIN), getLong(record, END), getLong(record, AMOUNT));
+    }
+
+    private void compactIfNeeded() {
+        int superseded = records - live.cardinality();
+        if (superseded > COMPACTION_THRESHOLD && superseded > live.cardinality()) {
+            compact();
+        }
+    }
+
+    private List<Price> findByKey(ProductKey key) {
+        List<Price> found = read(() -> product(key, record -> true));
+        found.sort(BY_ID);
+        return found;
+    }
+
+    private List<Price> findActiveAt(ProductKey key, LocalDateTime instant) {
+        long at = EpochNanos.floor(instant);
+        List<Price> found = read(() -> product(key, record -> CompactPrice.isActiveAt(getLong(record, BEGIN), getLong(record, END), at)));
+        found.sort(BY_BEGIN);
+        return found;
+    }
+
+    private List<Price> findOverlapping(ProductKey key, LocalDateTime from, LocalDateTime to) {
+        long begin = EpochNanos.floor(from);
+        long end = EpochNanos.ceiling(to);
+        List<Price> found = read(() -> product(key, record -> CompactPrice.intersects(getLong(record, BEGIN), getLong(record, END), begin, end)));
+        found.sort(BY_BEGIN);
+        return found;
+    }
+
+    private List<Price> scan(IntPredicate filter) {
+        List<Price> found = new ArrayList<>();
+        for (int record = live.nextSetBit(0); record >= 0; record = live.nextSetBit(record + 1)) {
+            if (filter.test(record)) {
+                found.add(toPrice(record));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Prices of a department, or of all departments when the key has none.
+     */
+    private List<Price> product(ProductKey key, IntPredicate filter) {
+        List<Price> found = new ArrayList<>();
+        List<Integer> ordinals = key.getDepart() == null
+                ? departments.get(key)
+                : chainOrdinals.containsKey(key) ? Collections.singletonList(chainOrdinals.get(key)) : null;
+        if (ordinals != null) {
+            for (int chain : ordinals) {
+                for (int record = heads[chain]; record != NO_RECORD; record = next[record]) {
+                    if (filter.test(record)) {
+                        found.add(toPrice(record));
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private Price toPrice(int record) {
+        ProductKey key = keys.get(getInt(record, KEY));
+        return new CompactPrice(
+                getLong(record, ID),
+                key.getProductCode(),
+                key.getNumber(),
+                getInt(record, DEPART),
+                getLong(record, BEGIN),
+                getLong(record, END),
+                getLong(record, AMOUNT),
+                getInt(record, OP) >>> 8
+        ).toPrice();
+    }
+
+    private void link(int record, int chain) {
+        if (record >= next.length) {
+            next = Arrays.copyOf(next, Math.max(record + 1, next.length * 2));
+            chains = Arrays.copyOf(chains, next.length);
+        }
+        next[record] = heads[chain];
+        chains[record] = chain;
+        heads[chain] = record;
+    }
+
+    private void unlink(int record) {
+        int chain = chains[record];
+        int previous = NO_RECORD;
+        for (int current = heads[chain]; current != NO_RECORD; previous = current, current = next[current]) {
+            if (current == record) {
+                if (previous == NO_RECORD) {
+                    heads[chain] = next[record];
+                } else {
+                    next[previous] = next[record];
+                }
+                return;
+            }
+        }
+    }
+
+    private void mapUpTo(int record) {
+        long position = (long) (record + 1) * RECORD;
+        try {
+            while (position + RECORD > (long) segments.size() * SEGMENT) {
+                segments.add(prices.map(FileChannel.MapMode.READ_WRITE, segments.size() * SEGMENT, SEGMENT));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MappedByteBuffer segment(int record) {
+        return segments.get((int) (((long) record + 1) * RECORD / SEGMENT));
+    }
+
+    private static int offset(int record) {
+        return (int) (((long) record + 1) * RECORD % SEGMENT);
+    }
+
+    private long getLong(int record, int field) {
+        return segment(record).getLong(offset(record) + field);
+    }
+
+    /**
+     * The operation of a record; a save keeps the scale of its amount in the bits above.
+     */
+    private int op(int record) {
+        return getInt(record, OP) & 0xFF;
+    }
+
+    private int getInt(int record, int field) {
+        return segment(record).getInt(offset(record) + field);
+    }
+
+    private static int checksum(int op, long id, int key, int depart, long begin, long end, long amount) {
+        long hash = op;
+        hash = hash * 0x9E3779B97F4A7C15L + id;
+        hash = hash * 0x9E3779B97F4A7C15L + key;
+        hash = hash * 0x9E3779B97F4A7C15L + depart;
+        hash = hash * 0x9E3779B97F4A7C15L + begin;
+        hash = hash * 0x9E3779B97F4A7C15L + end;
+        hash = hash * 0x9E3779B97F4A7C15L + amount;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(RECORD);
+        header.putLong(0, MAGIC).putInt(8, VERSION);
+        return header;
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel target) throws IOException {
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        ((Buffer) buffer).clear();
+    }
+
+    private <T> T read(Supplier<T> query) {
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T write(Supplier<T> update) {
+        lock.writeLock().lock();
+        try {
+            return update.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
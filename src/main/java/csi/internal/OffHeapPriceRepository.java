@@ -0,0 +1,363 @@
+package csi.internal;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static csi.internal.PriceColumns.FREE_KEY;
+import static csi.internal.PriceColumns.NO_SLOT;
+
+/**
+ * Keeps prices in off-heap {@link PriceColumns}. The heap holds one {@link ProductKey} per product and
+ * no object per price: the id index is a primitive {@link LongIntMap}, 24 to 48 bytes of heap per price.
+ */
+public class OffHeapPriceRepository implements PriceRepository {
+
+    private static final Comparator<Price> BY_ID = Comparator.comparing(Price::getId);
+    private static final Comparator<Price> BY_BEGIN = Comparator.comparing(Price::getBegin).thenComparing(Price::getId);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final StripedLocks mergeLocks = new StripedLocks(1024);
+
+    private final Map<ProductKey, Integer> keyOrdinals = new HashMap<>();
+    private final List<ProductKey> keys = new ArrayList<>();
+    private final Map<ProductKey, List<Integer>> departments = new HashMap<>();
+    private int[] heads = new int[16];
+
+    private final int initialCapacity;
+    private PriceColumns columns;
+    private LongIntMap slotsById;
+    private int used;
+    private int freeSlot = NO_SLOT;
+
+    public OffHeapPriceRepository() {
+        this(1024);
+    }
+
+    public OffHeapPriceRepository(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.columns = new PriceColumns(initialCapacity);
+        this.slotsById = new LongIntMap(initialCapacity);
+    }
+
+    @Override
+    public Collection<Price> findAll() {
+        return read(() -> scan(slot -> true));
+    }
+
+    @Override
+    public Price findOne(Long id) {
+        return read(() -> {
+            int slot = slotsById.get(id, NO_SLOT);
+            return slot == NO_SLOT ? null : toPrice(slot);
+        });
+    }
+
+    @Override
+    public Price save(Price price) {
+        CompactPrice compact = CompactPrice.of(price);
+        return write(() -> store(compact, ProductKey.of(price)));
+    }
+
+    @Override
+    public void delete(Price price) {
+        write(() -> {
+            remove(price.getId());
+            return null;
+        });
+    }
+
+    /**
+     * Packs every saved price before touching the columns, so a price the compact form cannot keep
+     * rejects the whole merge and leaves the timeline as it was.
+     */
+    @Override
+    public void updateProduct(ProductKey key, Collection<Price> saved, Collection<Price> deleted) {
+        List<CompactPrice> compact = new ArrayList<>(saved.size());
+        List<ProductKey> productKeys = new ArrayList<>(saved.size());
+        for (Price price : saved) {
+            compact.add(CompactPrice.of(price));
+            productKeys.add(ProductKey.of(price));
+        }
+        write(() -> {
+            deleted.forEach(price -> remove(price.getId()));
+            for (int i = 0; i < compact.size(); i++) {
+                store(compact.get(i), productKeys.get(i));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void truncate() {
+        write(() -> {
+            keyOrdinals.clear();
+            keys.clear();
+            departments.clear();
+            heads = new int[16];
+            columns = new PriceColumns(initialCapacity);
+            slotsById = new LongIntMap(initialCapacity);
+            used = 0;
+            freeSlot = NO_SLOT;
+            return null;
+        });
+    }
+
+    @Override
+    public List<Price> findByBeginAndEnd(LocalDateTime start, LocalDateTime end) {
+        if (!EpochNanos.isExact(start) || !EpochNanos.isExact(end)) {
+            return Collections.emptyList();
+        }
+        long begin = EpochNanos.of(start);
+        long finish = EpochNanos.of(end);
+        return read(() -> scan(slot -> columns.begin(slot) == begin && columns.end(slot) == finish));
+    }
+
+    @Override
+    public List<Price> findByCodeAndNumber(String code, Integer number) {
+        return findByKey(new ProductKey(code, number));
+    }
+
+    @Override
+    public List<Price> findByCodeNumberAndDepart(String code, Integer number, Integer depart) {
+        return findByKey(new ProductKey(code, number, depart));
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, LocalDateTime instant) {
+        return findActiveAt(new ProductKey(code, number), instant);
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, Integer depart, LocalDateTime instant) {
+        return findActiveAt(new ProductKey(code, number, depart), instant);
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, LocalDateTime from, LocalDateTime to) {
+        return findOverlapping(new ProductKey(code, number), from, to);
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, Integer depart, LocalDateTime from, LocalDateTime to) {
+        return findOverlapping(new ProductKey(code, number, depart), from, to);
+    }
+
+    @Override
+    public Set<ProductKey> findProductKeys() {
+        return read(() -> {
+            Set<ProductKey> found = new HashSet<>();
+            for (int ordinal = 0; ordinal < keys.size(); ordinal++) {
+                if (heads[ordinal] != NO_SLOT) {
+                    found.add(keys.get(ordinal));
+                }
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Walks the slot chains of all department timelines in parallel, comparing begin and end columns only.
+     */
+    @Override
+    public PriceBook materializeAt(LocalDateTime instant) {
+        long at = EpochNanos.floor(instant);
+        return read(() -> {
+            ProductKey[] found = keys.toArray(new ProductKey[0]);
+            long[] ids = new long[found.length];
+            long[] amounts = new long[found.length];
+            IntStream.range(0, found.length).parallel().forEach(ordinal -> {
+                int effective = NO_SLOT;
+                for (int slot = heads[ordinal]; slot != NO_SLOT; slot = columns.next(slot)) {
+                    long begin = columns.begin(slot);
+                    if (CompactPrice.isActiveAt(begin, columns.end(slot), at) && (effective == NO_SLOT
+                            || begin > columns.begin(effective)
+                            || begin == columns.begin(effective) && columns.id(slot) > columns.id(effective))) {
+                        effective = slot;
+                    }
+                }
+                ids[ordinal] = effective == NO_SLOT ? PriceBook.NO_PRICE : columns.id(effective);
+                amounts[ordinal] = effective == NO_SLOT ? 0 : columns.amount(effective);
+            });
+            return PriceBook.of(instant, found, ids, amounts);
+        });
+    }
+
+    @Override
+    public Lock lockFor(ProductKey key) {
+        return mergeLocks.get(key);
+    }
+
+    private List<Price> findByKey(ProductKey key) {
+        List<Price> prices = read(() -> product(key, slot -> true));
+        prices.sort(BY_ID);
+        return prices;
+    }
+
+    private List<Price> findActiveAt(ProductKey key, LocalDateTime instant) {
+        long at = EpochNanos.floor(instant);
+        List<Price> prices = read(() -> product(key, slot -> CompactPrice.isActiveAt(columns.begin(slot), columns.end(slot), at)));
+        prices.sort(BY_BEGIN);
+        return prices;
+    }
+
+    private List<Price> findOverlapping(ProductKey key, LocalDateTime from, LocalDateTime to) {
+        long begin = EpochNanos.floor(from);
+        long end = EpochNanos.ceiling(to);
+        List<Price> prices = read(() -> product(key, slot -> CompactPrice.intersects(columns.begin(slot), columns.end(slot), begin, end)));
+        prices.sort(BY_BEGIN);
+        return prices;
+    }
+
+    private List<Price> scan(IntPredicate filter) {
+        List<Price> prices = new ArrayList<>();
+        for (int slot = 0; slot < used; slot++) {
+            if (columns.key(slot) != FREE_KEY && filter.test(slot)) {
+                prices.add(toPrice(slot));
+            }
+        }
+        return prices;
+    }
+
+    /**
+     * Prices of a department, or of all departments when the key has none.
+     */
+    private List<Price> product(ProductKey key, IntPredicate filter) {
+        List<Price> prices = new ArrayList<>();
+        List<Integer> ordinals = key.getDepart() == null
+                ? departments.get(key)
+                : keyOrdinals.containsKey(key) ? Collections.singletonList(keyOrdinals.get(key)) : null;
+        if (ordinals != null) {
+            for (int ordinal : ordinals) {
+                for (int slot = heads[ordinal]; slot != NO_SLOT; slot = columns.next(slot)) {
+                    if (filter.test(slot)) {
+                        prices.add(toPrice(slot));
+                    }
+                }
+            }
+        }
+        return prices;
+    }
+
+    private Price toPrice(int slot) {
+        ProductKey key = keys.get(columns.key(slot));
+        return new CompactPrice(
+                columns.id(slot),
+                key.getProductCode(),
+                key.getNumber(),
+                columns.depart(slot),
+                columns.begin(slot),
+                columns.end(slot),
+                columns.amount(slot),
+                columns.amountScale(slot)
+        ).toPrice();
+    }
+
+    private Price store(CompactPrice compact, ProductKey productKey) {
+        int key = ordinalOf(productKey);
+        int slot = slotsById.get(compact.getId(), NO_SLOT);
+        Price previous = null;
+        if (slot != NO_SLOT) {
+            previous = toPrice(slot);
+            if (columns.key(slot) != key) {
+                unlink(slot);
+                link(slot, key);
+            }
+        } else {
+            slot = allocate();
+            slotsById.put(compact.getId(), slot);
+            link(slot, key);
+        }
+        columns.write(slot, compact, key);
+        return previous;
+    }
+
+    private void remove(long id) {
+        int slot = slotsById.get(id, NO_SLOT);
+        if (slot != NO_SLOT) {
+            slotsById.remove(id);
+            unlink(slot);
+            columns.free(slot);
+            columns.next(slot, freeSlot);
+            freeSlot = slot;
+        }
+    }
+
+    private int ordinalOf(ProductKey key) {
+        Integer ordinal = keyOrdinals.get(key);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        int newOrdinal = keys.size();
+        keys.add(key);
+        keyOrdinals.put(key, newOrdinal);
+        departments.computeIfAbsent(key.product(), product -> new ArrayList<>()).add(newOrdinal);
+        if (newOrdinal == heads.length) {
+            heads = Arrays.copyOf(heads, heads.length * 2);
+        }
+        heads[newOrdinal] = NO_SLOT;
+        return newOrdinal;
+    }
+
+    private int allocate() {
+        if (freeSlot != NO_SLOT) {
+            int slot = freeSlot;
+            freeSlot = columns.next(slot);
+            return slot;
+        }
+        columns.grow(used + 1);
+        return used++;
+    }
+
+    private void link(int slot, int key) {
+        columns.next(slot, heads[key]);
+        heads[key] = slot;
+    }
+
+    private void unlink(int slot) {
+        int key = columns.key(slot);
+        int previous = NO_SLOT;
+        for (int current = heads[key]; current != NO_SLOT; previous = current, current = columns.next(current)) {
+            if (current == slot) {
+                if (previous == NO_SLOT) {
+                    heads[key] = columns.next(slot);
+                } else {
+                    columns.next(previous, columns.next(slot));
+                }
+                return;
+            }
+        }
+    }
+
+    private <T> T read(Supplier<T> query) {
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T write(Supplier<T> update) {
+        lock.writeLock().lock();
+        try {
+            return update.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -1,31 +1,168 @@
 package csi.internal;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
 
-public class PositiveAmount {
+/**
+ * Positive amount of money kept as a currency and a count of 1/10000 of its unit, so comparison,
+ * equality and hashing work on a long. {@link BigDecimal} only crosses the API edge and converts exactly:
+ * a value with more than {@value #SCALE} decimal places or beyond the long range is rejected.
+ * Every store keeps the same units, so an amount round-trips through any of them unchanged.
+ * Whole amounts of the default currency below {@value #CACHED_WHOLE_AMOUNTS} are shared by the factories.
+ */
+public class PositiveAmount implements Comparable<PositiveAmount> {
 
-    private BigDecimal value;
+    public static final String CURRENCY_PROPERTY = "csi.price.currency";
+    public static final Currency DEFAULT_CURRENCY = Currency.getInstance(System.getProperty(CURRENCY_PROPERTY, "RUB"));
+    public static final int SCALE = 4;
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000};
+    private static final int CACHED_WHOLE_AMOUNTS = 1 << 14;
+    private static final PositiveAmount[] wholeAmounts = new PositiveAmount[CACHED_WHOLE_AMOUNTS];
+
+    private final Currency currency;
+    private final long units;
+    private final int scale;
 
     public PositiveAmount(BigDecimal value) {
-        validate(value);
-        this.value = value;
+        this(value, DEFAULT_CURRENCY);
+    }
+
+    public PositiveAmount(BigDecimal value, Currency currency) {
+        this(currency, toUnits(value), Math.max(0, Math.min(SCALE, value.scale())));
     }
 
     public PositiveAmount(Integer value) {
-        this(new BigDecimal(value));
+        this(DEFAULT_CURRENCY, Math.multiplyExact((long) value, POWERS_OF_TEN[SCALE]), 0);
     }
 
-    private void validate(BigDecimal value) {
-        if (value.compareTo(BigDecimal.ZERO) <= 0) {
+    /**
+     * @param scale decimal places {@link #getValue} shows, no more than {@link #SCALE}
+     */
+    private PositiveAmount(Currency currency, long units, int scale) {
+        if (units <= 0) {
             throw new IllegalArgumentException("Значение цены не может быть отрицательным");
         }
+        this.currency = currency;
+        this.units = units;
+        this.scale = scale;
+    }
+
+    /**
+     * Amount of {@code value} whole units of the default currency; small amounts are shared.
+     */
+    public static PositiveAmount of(long value) {
+        if (value > 0 && value < CACHED_WHOLE_AMOUNTS) {
+            PositiveAmount cached = wholeAmounts[(int) value];
+            if (cached == null) {
+                cached = new PositiveAmount(DEFAULT_CURRENCY, value * POWERS_OF_TEN[SCALE], 0);
+                wholeAmounts[(int) value] = cached;
+            }
+            return cached;
+        }
+        try {
+            return new PositiveAmount(DEFAULT_CURRENCY, Math.multiplyExact(value, POWERS_OF_TEN[SCALE]), 0);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Значение цены слишком велико: " + value);
+        }
+    }
+
+    /**
+     * {@code unscaled * 10^-scale} in the default currency, without building a {@link BigDecimal}.
+     */
+    public static PositiveAmount of(long unscaled, int scale) {
+        if (scale < 0 || scale > SCALE) {
+            return new PositiveAmount(BigDecimal.valueOf(unscaled, scale));
+        }
+        if (scale == 0) {
+            return of(unscaled);
+        }
+        try {
+            return new PositiveAmount(DEFAULT_CURRENCY, Math.multiplyExact(unscaled, POWERS_OF_TEN[SCALE - scale]), scale);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Значение цены слишком велико: " + BigDecimal.valueOf(unscaled, scale));
+        }
+    }
+
+    /**
+     * Amount of {@code units} 1/10000 of the default currency unit shown with {@code scale} decimal places,
+     * as the compact stores keep it.
+     */
+    public static PositiveAmount ofUnits(long units, int scale) {
+        return ofUnits(units, scale, DEFAULT_CURRENCY);
+    }
+
+    public static PositiveAmount ofUnits(long units, int scale, Currency currency) {
+        if (scale < 0 || scale > SCALE || units % POWERS_OF_TEN[SCALE - scale] != 0) {
+            throw new IllegalArgumentException("Значение цены " + BigDecimal.valueOf(units, SCALE) + " не имеет " + scale + " знаков после запятой");
+        }
+        if (scale == 0 && currency == DEFAULT_CURRENCY) {
+            return of(units / POWERS_OF_TEN[SCALE]);
+        }
+        return new PositiveAmount(currency, units, scale);
     }
 
     public BigDecimal getValue() {
-        return value;
+        return BigDecimal.valueOf(units / POWERS_OF_TEN[SCALE - scale], scale);
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Decimal places {@link #getValue} shows, the scale the amount was given with.
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * The amount in 1/10000 of the currency unit.
+     */
+    public long getUnits() {
+        return units;
     }
 
     public boolean equalTo(PositiveAmount amount) {
-        return this.value.compareTo(amount.value) == 0;
+        return this.units == amount.units && this.currency == amount.currency;
+    }
+
+    @Override
+    public int compareTo(PositiveAmount amount) {
+        if (this.currency != amount.currency) {
+            throw new IllegalArgumentException("Нельзя сравнить цены в " + currency + " и " + amount.currency);
+        }
+        return Long.compare(this.units, amount.units);
+    }
+
+    /**
+     * Same as {@link #equalTo}: {@code 100} and {@code 100.00} are equal amounts.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PositiveAmount && equalTo((PositiveAmount) other);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(units) + currency.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getValue().toPlainString() + " " + currency.getCurrencyCode();
+    }
+
+    private static long toUnits(BigDecimal value) {
+        if (value.signum() <= 0) {
+            throw new IllegalArgumentException("Значение цены не может быть отрицательным");
+        }
+        try {
+            return value.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Значение цены должно быть не точнее " + SCALE + " знаков после запятой: " + value);
+        }
     }
 }
@@ -3,11 +3,10 @@ package csi.internal;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
 
 public class Price {
 
-    private static AtomicLong counter = new AtomicLong();
+    private static volatile PriceIdAllocator ids = PriceIdAllocator.configured();
 
     private Long           id;
     private String         productCode;
@@ -18,7 +17,11 @@ public class Price {
     private PositiveAmount amount;
 
     public Price(String productCode, Integer number, Integer depart, LocalDateTime begin, LocalDateTime end, PositiveAmount amount) {
-        this.id = counter.incrementAndGet();
+        this(ids.nextId(), productCode, number, depart, begin, end, amount);
+    }
+
+    Price(Long id, String productCode, Integer number, Integer depart, LocalDateTime begin, LocalDateTime end, PositiveAmount amount) {
+        this.id = id;
         this.productCode = productCode;
         this.number = number;
         this.depart = depart;
@@ -27,6 +30,23 @@ public class Price {
         this.amount = amount;
     }
 
+    /**
+     * Replaces the id allocator and returns the one it replaced. Meant for startup: the new allocator
+     * does not know the ids already handed out.
+     */
+    public static PriceIdAllocator useIdAllocator(PriceIdAllocator allocator) {
+        PriceIdAllocator previous = ids;
+        ids = allocator;
+        return previous;
+    }
+
+    /**
+     * Makes sure new prices get ids above {@code id}, after prices with existing ids were loaded.
+     */
+    static void reserveIds(long id) {
+        ids.reserveAbove(id);
+    }
+
     private Price(Price price, LocalDateTime newBegin, LocalDateTime newEnd) {
         this.id = price.id;
         this.productCode = price.productCode;
@@ -48,12 +68,32 @@ public class Price {
         return new Duration(begin, end);
     }
 
+    public boolean contains(Price price) {
+        return Duration.contains(begin, end, price.begin, price.end);
+    }
+
+    public boolean containsIn(Price price) {
+        return Duration.contains(price.begin, price.end, begin, end);
+    }
+
+    public boolean overlapsAtStartBy(Price price) {
+        return Duration.overlapsAtStartBy(begin, end, price.begin, price.end);
+    }
+
+    public boolean overlapsAtEndBy(Price price) {
+        return Duration.overlapsAtEndBy(begin, end, price.begin, price.end);
+    }
+
+    public boolean overlaps(Price price) {
+        return Duration.overlaps(begin, end, price.begin, price.end);
+    }
+
     public Price withUpdatedDuration(LocalDateTime newBegin, LocalDateTime newEnd) {
         return new Price(this, newBegin, newEnd);
     }
 
     public Price mergedWith(Price price) {
-        if (this.duration().overlapsAtStartBy(price.duration())){
+        if (this.overlapsAtStartBy(price)){
             return new Price(this, price.begin, this.end);
         } else {
             return new Price(this, this.begin, price.end);
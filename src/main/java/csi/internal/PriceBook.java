@@ -0,0 +1,110 @@
+package csi.internal;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Effective price of every department timeline at one instant: the active price which begins last,
+ * as {@link PriceRepository#findActiveAt} orders them. Rows are parallel arrays of department key,
+ * price id and amount in {@link PositiveAmount#getUnits units}, in no particular order.
+ */
+public final class PriceBook {
+
+    static final long NO_PRICE = Long.MIN_VALUE;
+
+    private final LocalDateTime instant;
+    private final ProductKey[] keys;
+    private final long[] ids;
+    private final long[] amounts;
+    private final int size;
+
+    private PriceBook(LocalDateTime instant, ProductKey[] keys, long[] ids, long[] amounts, int size) {
+        this.instant = instant;
+        this.keys = keys;
+        this.ids = ids;
+        this.amounts = amounts;
+        this.size = size;
+    }
+
+    /**
+     * Takes over the arrays and drops the rows whose id is {@link #NO_PRICE}.
+     */
+    static PriceBook of(LocalDateTime instant, ProductKey[] keys, long[] ids, long[] amounts) {
+        int size = 0;
+        for (int row = 0; row < keys.length; row++) {
+            if (ids[row] != NO_PRICE) {
+                keys[size] = keys[row];
+                ids[size] = ids[row];
+                amounts[size] = amounts[row];
+                size++;
+            }
+        }
+        return new PriceBook(instant, keys, ids, amounts, size);
+    }
+
+    /**
+     * Joins books of disjoint repositories, for example of shards, taken at the same instant.
+     */
+    static PriceBook concat(LocalDateTime instant, List<PriceBook> books) {
+        int size = books.stream().mapToInt(PriceBook::size).sum();
+        ProductKey[] keys = new ProductKey[size];
+        long[] ids = new long[size];
+        long[] amounts = new long[size];
+        int offset = 0;
+        for (PriceBook book : books) {
+            System.arraycopy(book.keys, 0, keys, offset, book.size);
+            System.arraycopy(book.ids, 0, ids, offset, book.size);
+            System.arraycopy(book.amounts, 0, amounts, offset, book.size);
+            offset += book.size;
+        }
+        return new PriceBook(instant, keys, ids, amounts, size);
+    }
+
+    public LocalDateTime getInstant() {
+        return instant;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public IntStream rows() {
+        return IntStream.range(0, size);
+    }
+
+    public ProductKey getKey(int row) {
+        return keys[checked(row)];
+    }
+
+    public long getId(int row) {
+        return ids[checked(row)];
+    }
+
+    /**
+     * The amount in 1/10000 of the currency unit.
+     */
+    public long getAmountInUnits(int row) {
+        return amounts[checked(row)];
+    }
+
+    public BigDecimal getAmount(int row) {
+        return BigDecimal.valueOf(getAmountInUnits(row), PositiveAmount.SCALE);
+    }
+
+    /**
+     * Row of the department timeline, or -1 if it had no active price. Scans the book.
+     */
+    public int indexOf(ProductKey key) {
+        return Arrays.asList(keys).subList(0, size).indexOf(key);
+    }
+
+    private int checked(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Строка " + row + " вне прайс-листа из " + size);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,141 @@
+package csi.internal;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Price rows stored column by column in direct buffers, outside of the Java heap.
+ * A row is addressed by its slot; {@code next} chains slots of one product or free slots. Not thread safe.
+ */
+final class PriceColumns {
+
+    static final int NO_SLOT = -1;
+    static final int FREE_KEY = -1;
+
+    private int        capacity;
+    private LongBuffer ids;
+    private IntBuffer  keys;
+    private IntBuffer  departs;
+    private LongBuffer begins;
+    private LongBuffer ends;
+    private LongBuffer amounts;
+    private ByteBuffer amountScales;
+    private IntBuffer  next;
+
+    PriceColumns(int capacity) {
+        this.capacity = capacity;
+        this.ids = longs(capacity);
+        this.keys = ints(capacity);
+        this.departs = ints(capacity);
+        this.begins = longs(capacity);
+        this.ends = longs(capacity);
+        this.amounts = longs(capacity);
+        this.amountScales = ByteBuffer.allocateDirect(capacity);
+        this.next = ints(capacity);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    void grow(int minCapacity) {
+        if (minCapacity <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(minCapacity, capacity * 2);
+        ids = copy(ids, longs(newCapacity));
+        keys = copy(keys, ints(newCapacity));
+        departs = copy(departs, ints(newCapacity));
+        begins = copy(begins, longs(newCapacity));
+        ends = copy(ends, longs(newCapacity));
+        amounts = copy(amounts, longs(newCapacity));
+        amountScales = copy(amountScales, ByteBuffer.allocateDirect(newCapacity));
+        next = copy(next, ints(newCapacity));
+        capacity = newCapacity;
+    }
+
+    void write(int slot, CompactPrice price, int key) {
+        ids.put(slot, price.getId());
+        keys.put(slot, key);
+        departs.put(slot, price.getDepart());
+        begins.put(slot, price.getBegin());
+        ends.put(slot, price.getEnd());
+        amounts.put(slot, price.getAmount());
+        amountScales.put(slot, (byte) price.getAmountScale());
+    }
+
+    long id(int slot) {
+        return ids.get(slot);
+    }
+
+    int key(int slot) {
+        return keys.get(slot);
+    }
+
+    void free(int slot) {
+        keys.put(slot, FREE_KEY);
+    }
+
+    int depart(int slot) {
+        return departs.get(slot);
+    }
+
+    long begin(int slot) {
+        return begins.get(slot);
+    }
+
+    long end(int slot) {
+        return ends.get(slot);
+    }
+
+    long amount(int slot) {
+        return amounts.get(slot);
+    }
+
+    int amountScale(int slot) {
+        return amountScales.get(slot);
+    }
+
+    int next(int slot) {
+        return next.get(slot);
+    }
+
+    void next(int slot, int nextSlot) {
+        next.put(slot, nextSlot);
+    }
+
+    private static LongBuffer longs(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    private static IntBuffer ints(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    private static LongBuffer copy(LongBuffer from, LongBuffer to) {
+        LongBuffer source = from.duplicate();
+        ((Buffer) source).clear();
+        to.put(source);
+        ((Buffer) to).clear();
+        return to;
+    }
+
+    private static ByteBuffer copy(ByteBuffer from, ByteBuffer to) {
+        ByteBuffer source = from.duplicate();
+        ((Buffer) source).clear();
+        to.put(source);
+        ((Buffer) to).clear();
+        return to;
+    }
+
+    private static IntBuffer copy(IntBuffer from, IntBuffer to) {
+        IntBuffer source = from.duplicate();
+        ((Buffer) source).clear();
+        to.put(source);
+        ((Buffer) to).clear();
+        return to;
+    }
+}
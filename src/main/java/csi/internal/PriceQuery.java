@@ -0,0 +1,145 @@
+package csi.internal;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Prices of a set of products intersecting the half-open period {@code [from, to)}, optionally within amount bounds.
+ * Results come key by key in a fixed key order and by begin and id inside a key, so a query can be resumed
+ * after any price it returned with {@link #after}.
+ */
+public final class PriceQuery {
+
+    private static final Comparator<ProductKey> KEY_ORDER = Comparator
+            .comparing(ProductKey::getProductCode)
+            .thenComparing(ProductKey::getNumber)
+            .thenComparing(ProductKey::getDepart, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final List<ProductKey> keys;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+    private final BigDecimal minAmount;
+    private final BigDecimal maxAmount;
+    private final long minUnits;
+    private final long maxUnits;
+    private final LocalDateTime resumeBegin;
+    private final Long resumeId;
+
+    /**
+     * A key without department selects the product in all departments and makes its department keys redundant.
+     */
+    public PriceQuery(Collection<ProductKey> keys, LocalDateTime from, LocalDateTime to) {
+        this(normalize(keys), from, to, null, null, null, null);
+    }
+
+    private PriceQuery(List<ProductKey> keys, LocalDateTime from, LocalDateTime to,
+                       BigDecimal minAmount, BigDecimal maxAmount, LocalDateTime resumeBegin, Long resumeId) {
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("Начало периода запроса должно быть раньше окончания");
+        }
+        this.keys = keys;
+        this.from = from;
+        this.to = to;
+        this.minAmount = minAmount;
+        this.maxAmount = maxAmount;
+        this.minUnits = toUnits(minAmount, RoundingMode.CEILING, Long.MIN_VALUE);
+        this.maxUnits = toUnits(maxAmount, RoundingMode.FLOOR, Long.MAX_VALUE);
+        this.resumeBegin = resumeBegin;
+        this.resumeId = resumeId;
+    }
+
+    /**
+     * The same query restricted to amounts in {@code [minAmount, maxAmount]}; {@code null} leaves a side open.
+     */
+    public PriceQuery withAmountBetween(BigDecimal minAmount, BigDecimal maxAmount) {
+        return new PriceQuery(keys, from, to, minAmount, maxAmount, resumeBegin, resumeId);
+    }
+
+    /**
+     * The rest of the query after the price with {@code begin} and {@code id} it returned from the key with the given index.
+     */
+    public PriceQuery after(int keyIndex, LocalDateTime begin, Long id) {
+        if (keyIndex < 0 || keyIndex >= keys.size()) {
+            throw new IllegalArgumentException("Ключ продолжения вне запроса: " + keyIndex);
+        }
+        return new PriceQuery(keys.subList(keyIndex, keys.size()), from, to, minAmount, maxAmount, begin, id);
+    }
+
+    public List<ProductKey> getKeys() {
+        return keys;
+    }
+
+    public LocalDateTime getFrom() {
+        return from;
+    }
+
+    public LocalDateTime getTo() {
+        return to;
+    }
+
+    /**
+     * Index of the key which selected {@code price}, or -1.
+     */
+    public int indexOf(Price price) {
+        ProductKey key = ProductKey.of(price);
+        int index = Collections.binarySearch(keys, key.product(), KEY_ORDER);
+        return index >= 0 ? index : Collections.binarySearch(keys, key, KEY_ORDER);
+    }
+
+    /**
+     * Filters the prices one key found in the period, given by begin and id.
+     */
+    public Stream<Price> select(ProductKey key, List<Price> overlapping) {
+        Stream<Price> selected = overlapping.stream().filter(this::inAmountBounds);
+        if (resumeBegin != null && key.equals(keys.get(0))) {
+            selected = selected.filter(price -> price.getBegin().isAfter(resumeBegin)
+                    || price.getBegin().isEqual(resumeBegin) && price.getId() > resumeId);
+        }
+        return selected;
+    }
+
+    private boolean inAmountBounds(Price price) {
+        long units = price.getAmount().getUnits();
+        return units >= minUnits && units <= maxUnits;
+    }
+
+    /**
+     * A bound in {@link PositiveAmount#getUnits units}, rounded inwards: amounts are whole units, so the set
+     * of amounts within it does not change.
+     */
+    private static long toUnits(BigDecimal bound, RoundingMode rounding, long open) {
+        if (bound == null) {
+            return open;
+        }
+        BigDecimal units = bound.movePointRight(PositiveAmount.SCALE).setScale(0, rounding);
+        if (units.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) > 0) {
+            return Long.MAX_VALUE;
+        }
+        if (units.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) < 0) {
+            return Long.MIN_VALUE;
+        }
+        return units.longValue();
+    }
+
+    private static List<ProductKey> normalize(Collection<ProductKey> keys) {
+        Set<ProductKey> products = keys.stream()
+                .filter(key -> key.getDepart() == null)
+                .collect(Collectors.toSet());
+        List<ProductKey> normalized = new ArrayList<>();
+        keys.stream()
+                .filter(key -> key.getDepart() == null || !products.contains(key.product()))
+                .distinct()
+                .sorted(KEY_ORDER)
+                .forEach(normalized::add);
+        return Collections.unmodifiableList(normalized);
+    }
+}
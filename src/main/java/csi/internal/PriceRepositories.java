@@ -0,0 +1,46 @@
+package csi.internal;
+
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the {@link PriceRepository} implementation by the {@value #TYPE_PROPERTY} system property:
+ * {@code memory} (default), {@code offheap} or {@code mapped}. The mapped one keeps its files
+ * in the {@value #DIRECTORY_PROPERTY} directory. Setting {@value #JOURNAL_PROPERTY} to a directory puts
+ * a {@link JournaledPriceRepository} in front of the configured one.
+ */
+public final class PriceRepositories {
+
+    public static final String TYPE_PROPERTY = "csi.price.repository";
+    public static final String DIRECTORY_PROPERTY = "csi.price.repository.directory";
+    public static final String JOURNAL_PROPERTY = "csi.price.journal";
+
+    private static final Map<String, PriceRepository> shared = new ConcurrentHashMap<>();
+
+    private PriceRepositories() {
+    }
+
+    /**
+     * Repository of the configured type, shared by everyone in the JVM like the in-memory one.
+     */
+    public static PriceRepository configured() {
+        return shared.computeIfAbsent(System.getProperty(TYPE_PROPERTY, "memory"), type -> {
+            String journal = System.getProperty(JOURNAL_PROPERTY);
+            return journal == null ? create(type) : new JournaledPriceRepository(create(type), Paths.get(journal));
+        });
+    }
+
+    public static PriceRepository create(String type) {
+        switch (type) {
+            case "memory":
+                return new PriceRepositoryImpl();
+            case "offheap":
+                return new OffHeapPriceRepository();
+            case "mapped":
+                return new MappedPriceRepository(Paths.get(System.getProperty(DIRECTORY_PROPERTY, "prices")));
+            default:
+                throw new IllegalArgumentException("Неизвестный тип хранилища цен: " + type);
+        }
+    }
+}
@@ -3,6 +3,11 @@ package csi.internal;
 import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public interface PriceRepository {
 
@@ -14,9 +19,93 @@ public interface PriceRepository {
 
     void delete(Price price);
 
+    /**
+     * Applies all changes of one merge to a product. Implementations which can should make them visible at once.
+     */
+    default void updateProduct(ProductKey key, Collection<Price> saved, Collection<Price> deleted) {
+        deleted.forEach(this::delete);
+        saved.forEach(this::save);
+    }
+
     void truncate();
 
+    /**
+     * Returns once the changes made before the call survive a crash. Repositories without a journal return at once.
+     */
+    default void sync() {
+    }
+
+    /**
+     * Whether {@link #sync} has anything to wait for, so callers can skip it, and the calls it fans out to, otherwise.
+     */
+    default boolean isJournaled() {
+        return false;
+    }
+
+    /**
+     * Whether changes survive a restart on their own, without a journal in front.
+     */
+    default boolean isPersistent() {
+        return false;
+    }
+
     List<Price> findByBeginAndEnd(LocalDateTime start, LocalDateTime end);
 
+    /**
+     * Prices of the product in all departments, ordered by id.
+     */
     List<Price> findByCodeAndNumber(String code, Integer number);
+
+    /**
+     * Prices of the product in one department, ordered by id.
+     */
+    List<Price> findByCodeNumberAndDepart(String code, Integer number, Integer depart);
+
+    List<Price> findActiveAt(String code, Integer number, LocalDateTime instant);
+
+    List<Price> findActiveAt(String code, Integer number, Integer depart, LocalDateTime instant);
+
+    List<Price> findOverlapping(String code, Integer number, LocalDateTime from, LocalDateTime to);
+
+    List<Price> findOverlapping(String code, Integer number, Integer depart, LocalDateTime from, LocalDateTime to);
+
+    /**
+     * Lazily runs the query product by product on the period indexes.
+     */
+    default Stream<Price> findByQuery(PriceQuery query) {
+        return query.getKeys().stream().flatMap(key -> query.select(key, key.getDepart() == null
+                ? findOverlapping(key.getProductCode(), key.getNumber(), query.getFrom(), query.getTo())
+                : findOverlapping(key.getProductCode(), key.getNumber(), key.getDepart(), query.getFrom(), query.getTo())));
+    }
+
+    /**
+     * Keys of the department timelines which hold prices.
+     */
+    default Set<ProductKey> findProductKeys() {
+        return findAll().stream().map(ProductKey::of).collect(Collectors.toSet());
+    }
+
+    /**
+     * Effective prices of all department timelines at {@code instant}, looked up in parallel key by key.
+     * Repositories which keep primitive periods should walk them instead.
+     */
+    default PriceBook materializeAt(LocalDateTime instant) {
+        ProductKey[] keys = findProductKeys().toArray(new ProductKey[0]);
+        long[] ids = new long[keys.length];
+        long[] amounts = new long[keys.length];
+        IntStream.range(0, keys.length).parallel().forEach(row -> {
+            ProductKey key = keys[row];
+            List<Price> active = findActiveAt(key.getProductCode(), key.getNumber(), key.getDepart(), instant);
+            if (active.isEmpty()) {
+                ids[row] = PriceBook.NO_PRICE;
+            } else {
+                Price effective = active.get(active.size() - 1);
+                ids[row] = effective.getId();
+                amounts[row] = effective.getAmount().getUnits();
+            }
+        });
+        return PriceBook.of(instant, keys, ids, amounts);
+    }
+
+    Lock lockFor(ProductKey key);
 }
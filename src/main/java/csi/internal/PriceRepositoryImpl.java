@@ -1,50 +1,230 @@
 package csi.internal;
 
 import java.time.LocalDateTime;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+/**
+ * Every department timeline of a product is an immutable snapshot which a change replaces as a whole,
+ * so readers never lock and never see a half-applied {@link #update}. Every instance keeps its own prices,
+ * so two of them can serve as separate shards.
+ */
 public class PriceRepositoryImpl implements PriceRepository {
-    private static final ConcurrentHashMap<Long, Price> db = new ConcurrentHashMap<>();
+    private static final Comparator<Price> BY_ID = Comparator.comparing(Price::getId);
+    private static final Comparator<Price> BY_BEGIN = Comparator.comparing(Price::getBegin).thenComparing(Price::getId);
+
+    private final ConcurrentHashMap<ProductKey, Timeline> byProduct = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ProductKey, Set<ProductKey>> departments = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, ProductKey> productById = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<LocalDateTime, Set<ProductKey>> byBegin = new ConcurrentSkipListMap<>();
+    private final StripedLocks locks = new StripedLocks(1024);
 
     @Override
     public Collection<Price> findAll() {
-        return db.values();
+        return new AbstractCollection<Price>() {
+            @Override
+            public Iterator<Price> iterator() {
+                return byProduct.values().stream().flatMap(timeline -> timeline.values().stream()).iterator();
+            }
+
+            @Override
+            public int size() {
+                return byProduct.values().stream().mapToInt(Timeline::size).sum();
+            }
+        };
     }
 
     @Override
     public Price findOne(Long id) {
-        return db.get(id);
+        ProductKey key = productById.get(id);
+        Timeline timeline = key == null ? null : byProduct.get(key);
+        return timeline == null ? null : timeline.get(id);
     }
 
     @Override
     public Price save(Price price) {
-        return db.put(price.getId(), price);
+        Timeline previous = update(ProductKey.of(price), Collections.singletonList(price), Collections.emptyList());
+        return previous == null ? null : previous.get(price.getId());
     }
 
     @Override
     public void delete(Price price) {
-        db.remove(price.getId());
+        ProductKey key = productById.get(price.getId());
+        if (key != null) {
+            update(key, Collections.emptyList(), Collections.singletonList(price));
+        }
+    }
+
+    @Override
+    public void updateProduct(ProductKey key, Collection<Price> saved, Collection<Price> deleted) {
+        update(key, saved, deleted);
     }
 
     @Override
     public void truncate() {
-        db.clear();
+        byProduct.clear();
+        departments.clear();
+        productById.clear();
+        byBegin.clear();
     }
 
     @Override
     public List<Price> findByBeginAndEnd(LocalDateTime start, LocalDateTime end) {
-        return findAll().stream()
-                .filter(price -> price.getBegin().isEqual(start) && price.getEnd().isEqual(end))
+        Set<ProductKey> keys = byBegin.get(start);
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        return keys.stream()
+                .map(byProduct::get)
+                .filter(timeline -> timeline != null)
+                .flatMap(timeline -> timeline.startingAt(start).stream())
+                .filter(price -> price.getEnd().isEqual(end))
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<Price> findByCodeAndNumber(String code, Integer number) {
-        return findAll().stream()
-                .filter(price -> price.getProductCode().equals(code) && price.getNumber().equals(number))
-                .collect(Collectors.toList());
+        return queryDepartments(code, number, Timeline::prices, BY_ID);
+    }
+
+    @Override
+    public List<Price> findByCodeNumberAndDepart(String code, Integer number, Integer depart) {
+        return query(new ProductKey(code, number, depart), Timeline::prices);
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, LocalDateTime instant) {
+        return queryDepartments(code, number, timeline -> timeline.activeAt(instant), BY_BEGIN);
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, Integer depart, LocalDateTime instant) {
+        return query(new ProductKey(code, number, depart), timeline -> timeline.activeAt(instant));
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, LocalDateTime from, LocalDateTime to) {
+        return queryDepartments(code, number, timeline -> timeline.overlapping(from, to), BY_BEGIN);
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, Integer depart, LocalDateTime from, LocalDateTime to) {
+        return query(new ProductKey(code, number, depart), timeline -> timeline.overlapping(from, to));
+    }
+
+    @Override
+    public Set<ProductKey> findProductKeys() {
+        return new HashSet<>(byProduct.keySet());
+    }
+
+    /**
+     * Looks up every timeline snapshot in parallel on its cached {@link Timeline.Periods}.
+     */
+    @Override
+    public PriceBook materializeAt(LocalDateTime instant) {
+        long at = EpochNanos.floor(instant);
+        List<Map.Entry<ProductKey, Timeline>> timelines = new ArrayList<>(byProduct.entrySet());
+        ProductKey[] keys = new ProductKey[timelines.size()];
+        long[] ids = new long[keys.length];
+        long[] amounts = new long[keys.length];
+        IntStream.range(0, keys.length).parallel().forEach(row -> {
+            Map.Entry<ProductKey, Timeline> timeline = timelines.get(row);
+            Timeline.Periods periods = timeline.getValue().periods();
+            keys[row] = timeline.getKey();
+            if (periods.isExact()) {
+                int effective = periods.effectiveAt(at);
+                ids[row] = effective < 0 ? PriceBook.NO_PRICE : periods.id(effective);
+                amounts[row] = effective < 0 ? 0 : periods.amount(effective);
+            } else {
+                List<Price> active = timeline.getValue().activeAt(instant);
+                ids[row] = active.isEmpty() ? PriceBook.NO_PRICE : active.get(active.size() - 1).getId();
+                amounts[row] = active.isEmpty() ? 0 : active.get(active.size() - 1).getAmount().getUnits();
+            }
+        });
+        return PriceBook.of(instant, keys, ids, amounts);
+    }
+
+    @Override
+    public Lock lockFor(ProductKey key) {
+        return locks.get(key);
+    }
+
+    private List<Price> query(ProductKey key, Function<Timeline, List<Price>> query) {
+        Timeline timeline = byProduct.get(key);
+        return timeline == null ? Collections.emptyList() : query.apply(timeline);
+    }
+
+    private List<Price> queryDepartments(String code, Integer number, Function<Timeline, List<Price>> query,
+                                         Comparator<Price> order) {
+        Set<ProductKey> keys = departments.get(new ProductKey(code, number));
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        if (keys.size() == 1) {
+            return query(keys.iterator().next(), query);
+        }
+        List<Price> prices = new ArrayList<>();
+        keys.forEach(key -> prices.addAll(query(key, query)));
+        prices.sort(order);
+        return prices;
+    }
+
+    /**
+     * Publishes a copy of the product timeline with the changes applied and returns the replaced one.
+     */
+    private Timeline update(ProductKey key, Collection<Price> saved, Collection<Price> deleted) {
+        Timeline[] replaced = new Timeline[1];
+        byProduct.compute(key, (product, current) -> {
+            replaced[0] = current;
+            Timeline next = current == null ? new Timeline() : new Timeline(current);
+            if (current == null) {
+                departments.compute(key.product(), (allDepartments, keys) -> {
+                    Set<ProductKey> departmentKeys = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+                    departmentKeys.add(key);
+                    return departmentKeys;
+                });
+            }
+            for (Price price : deleted) {
+                unindexBegin(key, next, next.remove(price.getId()));
+            }
+            for (Price price : saved) {
+                productById.put(price.getId(), key);
+                byBegin.computeIfAbsent(price.getBegin(), begin -> ConcurrentHashMap.newKeySet()).add(key);
+                unindexBegin(key, next, next.put(price));
+            }
+            if (next.isEmpty()) {
+                departments.computeIfPresent(key.product(), (allDepartments, keys) -> {
+                    keys.remove(key);
+                    return keys.isEmpty() ? null : keys;
+                });
+                return null;
+            }
+            return next;
+        });
+        deleted.forEach(price -> productById.remove(price.getId(), key));
+        return replaced[0];
+    }
+
+    private void unindexBegin(ProductKey key, Timeline timeline, Price removed) {
+        if (removed != null && timeline.startingAt(removed.getBegin()).isEmpty()) {
+            byBegin.computeIfPresent(removed.getBegin(), (begin, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
     }
 }
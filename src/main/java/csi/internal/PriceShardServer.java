@@ -0,0 +1,197 @@
+package csi.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static csi.internal.PriceWire.*;
+
+/**
+ * Serves a {@link PriceRepository} to {@link RemotePriceRepository} clients on a loopback port,
+ * one thread per connection. Run {@link #main} to start a shard as a separate process.
+ */
+public class PriceShardServer implements AutoCloseable {
+
+    private final PriceRepository repository;
+    private final ServerSocket serverSocket;
+
+    /**
+     * Starts listening; port 0 picks a free one, see {@link #getPort()}.
+     */
+    public PriceShardServer(PriceRepository repository, int port) {
+        this.repository = repository;
+        try {
+            this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Thread acceptor = new Thread(this::accept, "price-shard-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * {@code PriceShardServer <port> [memory|offheap|mapped]}, the mapped store in the
+     * {@value PriceRepositories#DIRECTORY_PROPERTY} directory.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        PriceRepository repository = PriceRepositories.create(args.length > 1 ? args[1] : "offheap");
+        PriceShardServer server = new PriceShardServer(repository, Integer.parseInt(args[0]));
+        System.out.println("Хранилище цен слушает порт " + server.getPort());
+        Thread.currentThread().join();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread connection = new Thread(() -> serve(socket), "price-shard-connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket client = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()))) {
+            while (true) {
+                int op;
+                try {
+                    op = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                DataOutputStream body = new DataOutputStream(response);
+                try {
+                    handle(op, in, body);
+                } catch (RuntimeException e) {
+                    response.reset();
+                    body.writeByte(ERROR);
+                    body.writeUTF(String.valueOf(e.getMessage()));
+                }
+                response.writeTo(out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away, its requests die with the connection
+        }
+    }
+
+    /**
+     * Reads all arguments before calling the repository and writes the response to a buffer,
+     * so a failed call leaves the connection at the next request.
+     */
+    private void handle(int op, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (op) {
+            case FIND_ALL: {
+                List<Price> prices = new ArrayList<>(repository.findAll());
+                out.writeByte(OK);
+                writePrices(out, prices);
+                break;
+            }
+            case FIND_ONE: {
+                Price price = repository.findOne(in.readLong());
+                out.writeByte(OK);
+                writePrice(out, price);
+                break;
+            }
+            case SAVE: {
+                Price previous = repository.save(readPrice(in));
+                out.writeByte(OK);
+                writePrice(out, previous);
+                break;
+            }
+            case DELETE:
+                repository.delete(readPrice(in));
+                out.writeByte(OK);
+                break;
+            case UPDATE_PRODUCT: {
+                ProductKey key = readKey(in);
+                List<Price> saved = readPrices(in);
+                List<Price> deleted = readPrices(in);
+                repository.updateProduct(key, saved, deleted);
+                out.writeByte(OK);
+                break;
+            }
+            case TRUNCATE:
+                repository.truncate();
+                out.writeByte(OK);
+                break;
+            case SYNC:
+                repository.sync();
+                out.writeByte(OK);
+                break;
+            case IS_JOURNALED:
+                out.writeByte(OK);
+                out.writeBoolean(repository.isJournaled());
+                break;
+            case FIND_BY_BEGIN_AND_END:
+                respond(out, repository.findByBeginAndEnd(readDateTime(in), readDateTime(in)));
+                break;
+            case FIND_BY_CODE_AND_NUMBER:
+                respond(out, repository.findByCodeAndNumber(in.readUTF(), in.readInt()));
+                break;
+            case FIND_BY_CODE_NUMBER_AND_DEPART:
+                respond(out, repository.findByCodeNumberAndDepart(in.readUTF(), in.readInt(), in.readInt()));
+                break;
+            case FIND_ACTIVE_AT:
+                respond(out, repository.findActiveAt(in.readUTF(), in.readInt(), readDateTime(in)));
+                break;
+            case FIND_ACTIVE_AT_IN_DEPART:
+                respond(out, repository.findActiveAt(in.readUTF(), in.readInt(), in.readInt(), readDateTime(in)));
+                break;
+            case FIND_OVERLAPPING:
+                respond(out, repository.findOverlapping(in.readUTF(), in.readInt(), readDateTime(in), readDateTime(in)));
+                break;
+            case FIND_OVERLAPPING_IN_DEPART:
+                respond(out, repository.findOverlapping(in.readUTF(), in.readInt(), in.readInt(),
+                        readDateTime(in), readDateTime(in)));
+                break;
+            case FIND_PRODUCT_KEYS: {
+                Set<ProductKey> keys = repository.findProductKeys();
+                out.writeByte(OK);
+                writeKeys(out, keys);
+                break;
+            }
+            case MATERIALIZE_AT: {
+                PriceBook book = repository.materializeAt(readDateTime(in));
+                out.writeByte(OK);
+                writeBook(out, book);
+                break;
+            }
+            default:
+                throw new IOException("Неизвестная операция: " + op);
+        }
+    }
+
+    private static void respond(DataOutputStream out, List<Price> prices) throws IOException {
+        out.writeByte(OK);
+        writePrices(out, prices);
+    }
+}
@@ -0,0 +1,333 @@
+package csi.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a whole {@link PriceRepository}.
+ * <p>
+ * A 32 byte header (magic, version, price count, CRC32 of the body) is followed by one group per department
+ * timeline: the product code as a reference into a dictionary built while reading (a new code is written
+ * inline once), number, department and price count, then the prices ordered by begin. A price is its id
+ * as a delta to the previous id, then one integer with the amount's scale, a flag for dates and the
+ * currency as a reference into a second dictionary (a new currency code follows inline once), then
+ * its begin as a delta to the previous end and its length, both packed by {@link EpochNanos}, and its
+ * amount in units, all as variable-length integers, so a gapless timeline costs a few bytes per price.
+ * Dates {@link EpochNanos} cannot pack are flagged and written as epoch seconds and nanoseconds instead.
+ * <p>
+ * Files are written and read through {@link FileChannel} with one direct buffer, and {@link #transfer}
+ * ships a snapshot with {@link FileChannel#transferTo} without copying it through the heap.
+ */
+public final class PriceSnapshots {
+
+    private static final long MAGIC = 0x435349534E415031L;
+    private static final int VERSION = 3;
+    private static final int SCALE_BITS = 3;
+    private static final int UNPACKED_DATES = 1 << SCALE_BITS;
+    private static final int CURRENCY_SHIFT = SCALE_BITS + 1;
+    private static final int HEADER = 32;
+    private static final int BUFFER = 1 << 20;
+
+    private static final Comparator<ProductKey> KEY_ORDER = Comparator
+            .comparing(ProductKey::getProductCode)
+            .thenComparing(ProductKey::getNumber)
+            .thenComparing(ProductKey::getDepart);
+    private static final Comparator<Price> BY_BEGIN = Comparator.comparing(Price::getBegin).thenComparing(Price::getId);
+
+    private PriceSnapshots() {
+    }
+
+    /**
+     * Writes every price of the repository to {@code file} and returns their number.
+     */
+    public static long write(PriceRepository repository, Path file) {
+        List<ProductKey> keys = new ArrayList<>(repository.findProductKeys());
+        keys.sort(KEY_ORDER);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Encoder encoder = new Encoder(channel);
+            Map<String, Integer> codes = new HashMap<>();
+            Map<Currency, Integer> currencies = new HashMap<>();
+            long count = 0;
+            for (ProductKey key : keys) {
+                List<Price> prices = repository.findByCodeNumberAndDepart(key.getProductCode(), key.getNumber(), key.getDepart());
+                if (prices.isEmpty()) {
+                    continue;
+                }
+                prices.sort(BY_BEGIN);
+                Integer code = codes.get(key.getProductCode());
+                if (code == null) {
+                    encoder.putVarLong(codes.size());
+                    encoder.putBytes(key.getProductCode().getBytes(StandardCharsets.UTF_8));
+                    codes.put(key.getProductCode(), codes.size());
+                } else {
+                    encoder.putVarLong(code);
+                }
+                encoder.putSignedVarLong(key.getNumber());
+                encoder.putSignedVarLong(key.getDepart());
+                encoder.putVarLong(prices.size());
+                long previousId = 0;
+                long previousEnd = 0;
+                for (Price price : prices) {
+                    PositiveAmount amount = price.getAmount();
+                    boolean packed = EpochNanos.isExact(price.getBegin()) && EpochNanos.isExact(price.getEnd());
+                    Integer currency = currencies.get(amount.getCurrency());
+                    int currencyRef = currency == null ? currencies.size() : currency;
+                    encoder.putSignedVarLong(price.getId() - previousId);
+                    encoder.putVarLong(amount.getScale() | (packed ? 0 : UNPACKED_DATES) | (long) currencyRef << CURRENCY_SHIFT);
+                    if (currency == null) {
+                        encoder.putBytes(amount.getCurrency().getCurrencyCode().getBytes(StandardCharsets.US_ASCII));
+                        currencies.put(amount.getCurrency(), currencyRef);
+                    }
+                    if (packed) {
+                        long begin = EpochNanos.of(price.getBegin());
+                        long end = EpochNanos.of(price.getEnd());
+                        encoder.putSignedVarLong(begin - previousEnd);
+                        encoder.putSignedVarLong(end - begin);
+                        previousEnd = end;
+                    } else {
+                        encoder.putDateTime(price.getBegin());
+                        encoder.putDateTime(price.getEnd());
+                    }
+                    encoder.putSignedVarLong(amount.getUnits());
+                    previousId = price.getId();
+                }
+                count += prices.size();
+            }
+            encoder.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putLong(0, MAGIC).putInt(8, VERSION).putLong(16, count).putLong(24, encoder.crc.getValue());
+            channel.write(header, 0);
+            return count;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Replaces the contents of the repository with the snapshot in {@code file} and returns the number of prices.
+     * The checksum is verified before the repository is touched, then every department timeline is stored
+     * with one {@link PriceRepository#updateProduct} call.
+     */
+    public static long read(Path file, PriceRepository repository) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            channel.read(header, 0);
+            if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+                throw new IllegalStateException("Неизвестный формат снимка цен: " + file);
+            }
+            if (checksum(channel) != header.getLong(24)) {
+                throw new IllegalStateException("Снимок цен поврежден: " + file);
+            }
+            long count = header.getLong(16);
+            channel.position(HEADER);
+            Decoder decoder = new Decoder(channel);
+            repository.truncate();
+            List<String> codes = new ArrayList<>();
+            List<Currency> currencies = new ArrayList<>();
+            long maxId = 0;
+            long read = 0;
+            while (read < count) {
+                int codeRef = (int) decoder.getVarLong();
+                if (codeRef == codes.size()) {
+                    codes.add(new String(decoder.getBytes(), StandardCharsets.UTF_8));
+                }
+                String code = codes.get(codeRef);
+                int number = (int) decoder.getSignedVarLong();
+                int depart = (int) decoder.getSignedVarLong();
+                int size = (int) decoder.getVarLong();
+                List<Price> prices = new ArrayList<>(size);
+                long id = 0;
+                long end = 0;
+                for (int i = 0; i < size; i++) {
+                    id += decoder.getSignedVarLong();
+                    long meta = decoder.getVarLong();
+                    int currencyRef = (int) (meta >>> CURRENCY_SHIFT);
+                    if (currencyRef == currencies.size()) {
+                        currencies.add(Currency.getInstance(new String(decoder.getBytes(), StandardCharsets.US_ASCII)));
+                    }
+                    LocalDateTime begin;
+                    LocalDateTime finish;
+                    if ((meta & UNPACKED_DATES) == 0) {
+                        long packedBegin = end + decoder.getSignedVarLong();
+                        end = packedBegin + decoder.getSignedVarLong();
+                        begin = EpochNanos.toDateTime(packedBegin);
+                        finish = EpochNanos.toDateTime(end);
+                    } else {
+                        begin = decoder.getDateTime();
+                        finish = decoder.getDateTime();
+                    }
+                    PositiveAmount amount = PositiveAmount.ofUnits(decoder.getSignedVarLong(),
+                            (int) (meta & ((1 << SCALE_BITS) - 1)), currencies.get(currencyRef));
+                    prices.add(new Price(id, code, number, depart, begin, finish, amount));
+                    maxId = Math.max(maxId, id);
+                }
+                repository.updateProduct(new ProductKey(code, number, depart), prices, Collections.emptyList());
+                read += size;
+            }
+            Price.reserveIds(maxId);
+            return count;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sends the snapshot to {@code target}, for example a socket channel, and returns the number of bytes sent.
+     */
+    public static long transfer(Path file, WritableByteChannel target) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long sent = 0;
+            while (sent < size) {
+                sent += channel.transferTo(sent, size - sent, target);
+            }
+            return sent;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long checksum(FileChannel channel) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+        long position = HEADER;
+        int read;
+        while ((read = channel.read(buffer, position)) > 0) {
+            ((Buffer) buffer).flip();
+            crc.update(buffer);
+            ((Buffer) buffer).clear();
+            position += read;
+        }
+        return crc.getValue();
+    }
+
+    private static final class Encoder {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+        private final CRC32 crc = new CRC32();
+        private long position = HEADER;
+
+        private Encoder(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putSignedVarLong(long value) throws IOException {
+            putVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void putVarLong(long value) throws IOException {
+            if (buffer.remaining() < 10) {
+                flush();
+            }
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putDateTime(LocalDateTime dateTime) throws IOException {
+            putSignedVarLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+            putVarLong(dateTime.getNano());
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            putVarLong(bytes.length);
+            for (int from = 0; from < bytes.length; ) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int length = Math.min(buffer.remaining(), bytes.length - from);
+                buffer.put(bytes, from, length);
+                from += length;
+            }
+        }
+
+        void flush() throws IOException {
+            ((Buffer) buffer).flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            ((Buffer) buffer).clear();
+        }
+    }
+
+    private static final class Decoder {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+
+        private Decoder(FileChannel channel) {
+            this.channel = channel;
+            ((Buffer) buffer).flip();
+        }
+
+        long getSignedVarLong() throws IOException {
+            long value = getVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long getVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Некорректное число в снимке цен");
+        }
+
+        LocalDateTime getDateTime() throws IOException {
+            return LocalDateTime.ofEpochSecond(getSignedVarLong(), (int) getVarLong(), ZoneOffset.UTC);
+        }
+
+        byte[] getBytes() throws IOException {
+            byte[] bytes = new byte[(int) getVarLong()];
+            for (int from = 0; from < bytes.length; ) {
+                fill();
+                int length = Math.min(buffer.remaining(), bytes.length - from);
+                buffer.get(bytes, from, length);
+                from += length;
+            }
+            return bytes;
+        }
+
+        private byte get() throws IOException {
+            fill();
+            return buffer.get();
+        }
+
+        private void fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            ((Buffer) buffer).clear();
+            if (channel.read(buffer) < 0) {
+                throw new IllegalStateException("Снимок цен обрывается раньше времени");
+            }
+            ((Buffer) buffer).flip();
+        }
+    }
+}
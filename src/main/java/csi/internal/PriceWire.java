@@ -0,0 +1,147 @@
+package csi.internal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encoding of the shard protocol spoken by {@link PriceShardServer} and {@link RemotePriceRepository}.
+ * A request is an operation code followed by its arguments; a response is {@link #OK} followed by the result
+ * or {@link #ERROR} followed by a message. Prices travel field by field, date-times as epoch seconds and nanos
+ * and amounts as units, scale and currency, so whatever the memory repository takes goes through unchanged.
+ */
+final class PriceWire {
+
+    static final int FIND_ALL = 1;
+    static final int FIND_ONE = 2;
+    static final int SAVE = 3;
+    static final int DELETE = 4;
+    static final int UPDATE_PRODUCT = 5;
+    static final int TRUNCATE = 6;
+    static final int FIND_BY_BEGIN_AND_END = 7;
+    static final int FIND_BY_CODE_AND_NUMBER = 8;
+    static final int FIND_BY_CODE_NUMBER_AND_DEPART = 9;
+    static final int FIND_ACTIVE_AT = 10;
+    static final int FIND_ACTIVE_AT_IN_DEPART = 11;
+    static final int FIND_OVERLAPPING = 12;
+    static final int FIND_OVERLAPPING_IN_DEPART = 13;
+    static final int FIND_PRODUCT_KEYS = 14;
+    static final int MATERIALIZE_AT = 15;
+    static final int SYNC = 16;
+    static final int IS_JOURNALED = 17;
+
+    static final int OK = 0;
+    static final int ERROR = 1;
+
+    private PriceWire() {
+    }
+
+    static void writePrice(DataOutput out, Price price) throws IOException {
+        out.writeBoolean(price != null);
+        if (price != null) {
+            out.writeLong(price.getId());
+            out.writeUTF(price.getProductCode());
+            out.writeInt(price.getNumber());
+            out.writeInt(price.getDepart());
+            writeDateTime(out, price.getBegin());
+            writeDateTime(out, price.getEnd());
+            out.writeLong(price.getAmount().getUnits());
+            out.writeByte(price.getAmount().getScale());
+            out.writeUTF(price.getAmount().getCurrency().getCurrencyCode());
+        }
+    }
+
+    static Price readPrice(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return new Price(in.readLong(), in.readUTF(), in.readInt(), in.readInt(), readDateTime(in), readDateTime(in),
+                PositiveAmount.ofUnits(in.readLong(), in.readByte(), Currency.getInstance(in.readUTF())));
+    }
+
+    static void writePrices(DataOutput out, Collection<Price> prices) throws IOException {
+        out.writeInt(prices.size());
+        for (Price price : prices) {
+            writePrice(out, price);
+        }
+    }
+
+    static List<Price> readPrices(DataInput in) throws IOException {
+        int size = in.readInt();
+        List<Price> prices = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            prices.add(readPrice(in));
+        }
+        return prices;
+    }
+
+    static void writeKey(DataOutput out, ProductKey key) throws IOException {
+        out.writeUTF(key.getProductCode());
+        out.writeInt(key.getNumber());
+        out.writeBoolean(key.getDepart() != null);
+        if (key.getDepart() != null) {
+            out.writeInt(key.getDepart());
+        }
+    }
+
+    static ProductKey readKey(DataInput in) throws IOException {
+        String code = in.readUTF();
+        int number = in.readInt();
+        return in.readBoolean() ? new ProductKey(code, number, in.readInt()) : new ProductKey(code, number);
+    }
+
+    static void writeKeys(DataOutput out, Collection<ProductKey> keys) throws IOException {
+        out.writeInt(keys.size());
+        for (ProductKey key : keys) {
+            writeKey(out, key);
+        }
+    }
+
+    static Set<ProductKey> readKeys(DataInput in) throws IOException {
+        int size = in.readInt();
+        Set<ProductKey> keys = new HashSet<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            keys.add(readKey(in));
+        }
+        return keys;
+    }
+
+    static void writeBook(DataOutput out, PriceBook book) throws IOException {
+        out.writeInt(book.size());
+        for (int row = 0; row < book.size(); row++) {
+            writeKey(out, book.getKey(row));
+            out.writeLong(book.getId(row));
+            out.writeLong(book.getAmountInUnits(row));
+        }
+    }
+
+    static PriceBook readBook(DataInput in, LocalDateTime instant) throws IOException {
+        int size = in.readInt();
+        ProductKey[] keys = new ProductKey[size];
+        long[] ids = new long[size];
+        long[] amounts = new long[size];
+        for (int row = 0; row < size; row++) {
+            keys[row] = readKey(in);
+            ids[row] = in.readLong();
+            amounts[row] = in.readLong();
+        }
+        return PriceBook.of(instant, keys, ids, amounts);
+    }
+
+    static void writeDateTime(DataOutput out, LocalDateTime dateTime) throws IOException {
+        out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(dateTime.getNano());
+    }
+
+    static LocalDateTime readDateTime(DataInput in) throws IOException {
+        return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,70 @@
+package csi.internal;
+
+import java.util.Objects;
+
+/**
+ * Partition of prices which are merged with each other: a product in one department.
+ * A key without department stands for the product in all its departments.
+ */
+public final class ProductKey {
+
+    private final String  productCode;
+    private final Integer number;
+    private final Integer depart;
+
+    public ProductKey(String productCode, Integer number) {
+        this(productCode, number, null);
+    }
+
+    public ProductKey(String productCode, Integer number, Integer depart) {
+        this.productCode = productCode;
+        this.number = number;
+        this.depart = depart;
+    }
+
+    public static ProductKey of(Price price) {
+        return new ProductKey(price.getProductCode(), price.getNumber(), price.getDepart());
+    }
+
+    /**
+     * The same product in all departments.
+     */
+    public ProductKey product() {
+        return depart == null ? this : new ProductKey(productCode, number);
+    }
+
+    public String getProductCode() {
+        return productCode;
+    }
+
+    public Integer getNumber() {
+        return number;
+    }
+
+    public Integer getDepart() {
+        return depart;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ProductKey)) {
+            return false;
+        }
+        ProductKey that = (ProductKey) o;
+        return Objects.equals(productCode, that.productCode) && Objects.equals(number, that.number)
+                && Objects.equals(depart, that.depart);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Objects.hashCode(productCode) + Objects.hashCode(number)) + Objects.hashCode(depart);
+    }
+
+    @Override
+    public String toString() {
+        return depart == null ? productCode + "#" + number : productCode + "#" + number + "@" + depart;
+    }
+}
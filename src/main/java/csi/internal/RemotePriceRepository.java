@@ -0,0 +1,252 @@
+package csi.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+
+import static csi.internal.PriceWire.*;
+
+/**
+ * Client of a {@link PriceShardServer}. Every call borrows a pooled connection, so calls from different
+ * threads run concurrently. Merge locks are local: they serialize merges of this JVM only.
+ */
+public class RemotePriceRepository implements PriceRepository, AutoCloseable {
+
+    private final InetSocketAddress address;
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+    private final StripedLocks mergeLocks = new StripedLocks(1024);
+    private volatile Boolean journaled;
+
+    public RemotePriceRepository(String host, int port) {
+        this.address = new InetSocketAddress(host, port);
+    }
+
+    @Override
+    public Collection<Price> findAll() {
+        return call(FIND_ALL, out -> {
+        }, PriceWire::readPrices);
+    }
+
+    @Override
+    public Price findOne(Long id) {
+        return call(FIND_ONE, out -> out.writeLong(id), PriceWire::readPrice);
+    }
+
+    @Override
+    public Price save(Price price) {
+        return call(SAVE, out -> writePrice(out, price), PriceWire::readPrice);
+    }
+
+    @Override
+    public void delete(Price price) {
+        call(DELETE, out -> writePrice(out, price), in -> null);
+    }
+
+    @Override
+    public void updateProduct(ProductKey key, Collection<Price> saved, Collection<Price> deleted) {
+        call(UPDATE_PRODUCT, out -> {
+            writeKey(out, key);
+            writePrices(out, saved);
+            writePrices(out, deleted);
+        }, in -> null);
+    }
+
+    @Override
+    public void truncate() {
+        call(TRUNCATE, out -> {
+        }, in -> null);
+    }
+
+    @Override
+    public void sync() {
+        call(SYNC, out -> {
+        }, in -> null);
+    }
+
+    /**
+     * Asked once: a server keeps its repository, and with it the journal, for as long as it runs.
+     */
+    @Override
+    public boolean isJournaled() {
+        Boolean known = journaled;
+        if (known == null) {
+            known = call(IS_JOURNALED, out -> {
+            }, DataInputStream::readBoolean);
+            journaled = known;
+        }
+        return known;
+    }
+
+    @Override
+    public List<Price> findByBeginAndEnd(LocalDateTime start, LocalDateTime end) {
+        return call(FIND_BY_BEGIN_AND_END, out -> {
+            writeDateTime(out, start);
+            writeDateTime(out, end);
+        }, PriceWire::readPrices);
+    }
+
+    @Override
+    public List<Price> findByCodeAndNumber(String code, Integer number) {
+        return call(FIND_BY_CODE_AND_NUMBER, out -> {
+            out.writeUTF(code);
+            out.writeInt(number);
+        }, PriceWire::readPrices);
+    }
+
+    @Override
+    public List<Price> findByCodeNumberAndDepart(String code, Integer number, Integer depart) {
+        return call(FIND_BY_CODE_NUMBER_AND_DEPART, out -> {
+            out.writeUTF(code);
+            out.writeInt(number);
+            out.writeInt(depart);
+        }, PriceWire::readPrices);
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, LocalDateTime instant) {
+        return call(FIND_ACTIVE_AT, out -> {
+            out.writeUTF(code);
+            out.writeInt(number);
+            writeDateTime(out, instant);
+        }, PriceWire::readPrices);
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, Integer depart, LocalDateTime instant) {
+        return call(FIND_ACTIVE_AT_IN_DEPART, out -> {
+            out.writeUTF(code);
+            out.writeInt(number);
+            out.writeInt(depart);
+            writeDateTime(out, instant);
+        }, PriceWire::readPrices);
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, LocalDateTime from, LocalDateTime to) {
+        return call(FIND_OVERLAPPING, out -> {
+            out.writeUTF(code);
+            out.writeInt(number);
+            writeDateTime(out, from);
+            writeDateTime(out, to);
+        }, PriceWire::readPrices);
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, Integer depart, LocalDateTime from, LocalDateTime to) {
+        return call(FIND_OVERLAPPING_IN_DEPART, out -> {
+            out.writeUTF(code);
+            out.writeInt(number);
+            out.writeInt(depart);
+            writeDateTime(out, from);
+            writeDateTime(out, to);
+        }, PriceWire::readPrices);
+    }
+
+    @Override
+    public Set<ProductKey> findProductKeys() {
+        return call(FIND_PRODUCT_KEYS, out -> {
+        }, PriceWire::readKeys);
+    }
+
+    @Override
+    public PriceBook materializeAt(LocalDateTime instant) {
+        return call(MATERIALIZE_AT, out -> writeDateTime(out, instant), in -> readBook(in, instant));
+    }
+
+    @Override
+    public Lock lockFor(ProductKey key) {
+        return mergeLocks.get(key);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+            connection.close();
+        }
+    }
+
+    private <T> T call(int op, Request request, Response<T> response) {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(message);
+            out.writeByte(op);
+            request.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Connection connection = idle.poll();
+        boolean reusable = false;
+        try {
+            if (connection == null) {
+                connection = new Connection(address);
+            }
+            message.writeTo(connection.out);
+            connection.out.flush();
+            int status = connection.in.readUnsignedByte();
+            if (status == ERROR) {
+                String error = connection.in.readUTF();
+                reusable = true;
+                throw new IllegalStateException("Хранилище цен " + address + " ответило ошибкой: " + error);
+            }
+            T result = response.read(connection.in);
+            reusable = true;
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (reusable) {
+                idle.offer(connection);
+            } else if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Response<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private static final class Connection implements Closeable {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private Connection(InetSocketAddress address) throws IOException {
+            this.socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package csi.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One shared counter, so ids follow the order in which prices are created across all threads.
+ */
+public class SequentialIdAllocator implements PriceIdAllocator {
+
+    private final AtomicLong counter = new AtomicLong();
+
+    @Override
+    public long nextId() {
+        return counter.incrementAndGet();
+    }
+
+    @Override
+    public void reserveAbove(long id) {
+        counter.accumulateAndGet(id, Math::max);
+    }
+}
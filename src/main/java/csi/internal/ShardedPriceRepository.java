@@ -0,0 +1,249 @@
+package csi.internal;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Spreads products over shard repositories by consistent hashing of productCode and number, so all
+ * departments of a product live on one shard and every merge runs against that shard alone.
+ * Lookups without a product ask all shards at once and gather the answers.
+ * <p>
+ * {@link #addShard} moves only the products the new shard takes over on the ring; calls wait while it runs.
+ * Merge locks belong to this repository rather than to the shards, so a merge which began before a move
+ * still excludes merges of the same product after it.
+ */
+public class ShardedPriceRepository implements PriceRepository {
+
+    private static final int POINTS_PER_SHARD = 160;
+
+    private final ReadWriteLock topology = new ReentrantReadWriteLock();
+    private final StripedLocks mergeLocks = new StripedLocks(1024);
+    private final Map<String, PriceRepository> shards = new LinkedHashMap<>();
+    private final ExecutorService scatter = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "price-shard-scatter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ConsistentHashRing<PriceRepository> ring = new ConsistentHashRing<>(POINTS_PER_SHARD);
+
+    public ShardedPriceRepository() {
+    }
+
+    public ShardedPriceRepository(Map<String, PriceRepository> shards) {
+        shards.forEach(this::addShard);
+    }
+
+    /**
+     * Adds a shard and moves to it the products it now owns. Returns the number of moved department timelines.
+     */
+    public long addShard(String name, PriceRepository shard) {
+        topology.writeLock().lock();
+        try {
+            if (shards.containsKey(name)) {
+                throw new IllegalArgumentException("Хранилище цен уже подключено: " + name);
+            }
+            ConsistentHashRing<PriceRepository> next = new ConsistentHashRing<>(ring);
+            next.add(name, shard);
+            long moved = 0;
+            for (PriceRepository source : shards.values()) {
+                for (ProductKey key : source.findProductKeys()) {
+                    if (next.nodeFor(key) == shard) {
+                        List<Price> prices = source.findByCodeNumberAndDepart(key.getProductCode(), key.getNumber(), key.getDepart());
+                        shard.updateProduct(key, prices, Collections.emptyList());
+                        source.updateProduct(key, Collections.emptyList(), prices);
+                        moved++;
+                    }
+                }
+            }
+            shards.put(name, shard);
+            ring = next;
+            return moved;
+        } finally {
+            topology.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Shard which owns the product of the key, whatever its department.
+     */
+    public PriceRepository shardFor(ProductKey key) {
+        return read(() -> ring.nodeFor(key));
+    }
+
+    @Override
+    public Collection<Price> findAll() {
+        return gather(PriceRepository::findAll, Collection::stream);
+    }
+
+    @Override
+    public Price findOne(Long id) {
+        return read(() -> scatter(shard -> shard.findOne(id)).stream()
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null));
+    }
+
+    @Override
+    public Price save(Price price) {
+        return routed(ProductKey.of(price), shard -> shard.save(price));
+    }
+
+    @Override
+    public void delete(Price price) {
+        routed(ProductKey.of(price), shard -> {
+            shard.delete(price);
+            return null;
+        });
+    }
+
+    @Override
+    public void updateProduct(ProductKey key, Collection<Price> saved, Collection<Price> deleted) {
+        routed(key, shard -> {
+            shard.updateProduct(key, saved, deleted);
+            return null;
+        });
+    }
+
+    @Override
+    public void truncate() {
+        read(() -> scatter(shard -> {
+            shard.truncate();
+            return null;
+        }));
+    }
+
+    /**
+     * Waits for the journaled shards only.
+     */
+    @Override
+    public void sync() {
+        read(() -> scatter(journaledShards(), shard -> {
+            shard.sync();
+            return null;
+        }));
+    }
+
+    @Override
+    public boolean isJournaled() {
+        return read(() -> !journaledShards().isEmpty());
+    }
+
+    @Override
+    public List<Price> findByBeginAndEnd(LocalDateTime start, LocalDateTime end) {
+        return gather(shard -> shard.findByBeginAndEnd(start, end), List::stream);
+    }
+
+    @Override
+    public List<Price> findByCodeAndNumber(String code, Integer number) {
+        return routed(new ProductKey(code, number), shard -> shard.findByCodeAndNumber(code, number));
+    }
+
+    @Override
+    public List<Price> findByCodeNumberAndDepart(String code, Integer number, Integer depart) {
+        return routed(new ProductKey(code, number), shard -> shard.findByCodeNumberAndDepart(code, number, depart));
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, LocalDateTime instant) {
+        return routed(new ProductKey(code, number), shard -> shard.findActiveAt(code, number, instant));
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, Integer depart, LocalDateTime instant) {
+        return routed(new ProductKey(code, number), shard -> shard.findActiveAt(code, number, depart, instant));
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, LocalDateTime from, LocalDateTime to) {
+        return routed(new ProductKey(code, number), shard -> shard.findOverlapping(code, number, from, to));
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, Integer depart, LocalDateTime from, LocalDateTime to) {
+        return routed(new ProductKey(code, number), shard -> shard.findOverlapping(code, number, depart, from, to));
+    }
+
+    @Override
+    public Set<ProductKey> findProductKeys() {
+        return read(() -> {
+            Set<ProductKey> keys = new HashSet<>();
+            scatter(PriceRepository::findProductKeys).forEach(keys::addAll);
+            return keys;
+        });
+    }
+
+    @Override
+    public PriceBook materializeAt(LocalDateTime instant) {
+        return read(() -> PriceBook.concat(instant, scatter(shard -> shard.materializeAt(instant))));
+    }
+
+    @Override
+    public Lock lockFor(ProductKey key) {
+        return mergeLocks.get(key);
+    }
+
+    private <T> T routed(ProductKey key, Function<PriceRepository, T> call) {
+        return read(() -> call.apply(ring.nodeFor(key)));
+    }
+
+    private <T> List<Price> gather(Function<PriceRepository, T> call, Function<T, java.util.stream.Stream<Price>> prices) {
+        return read(() -> scatter(call).stream().flatMap(prices).collect(Collectors.toList()));
+    }
+
+    private List<PriceRepository> journaledShards() {
+        return shards.values().stream().filter(PriceRepository::isJournaled).collect(Collectors.toList());
+    }
+
+    private <T> List<T> scatter(Function<PriceRepository, T> call) {
+        return scatter(shards.values(), call);
+    }
+
+    /**
+     * Calls the given shards in parallel and waits for all answers.
+     */
+    private <T> List<T> scatter(Collection<PriceRepository> targets, Function<PriceRepository, T> call) {
+        List<CompletableFuture<T>> calls = new ArrayList<>(targets.size());
+        for (PriceRepository shard : targets) {
+            calls.add(CompletableFuture.supplyAsync(() -> call.apply(shard), scatter));
+        }
+        try {
+            return calls.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private <T> T read(Supplier<T> query) {
+        topology.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            topology.readLock().unlock();
+        }
+    }
+}
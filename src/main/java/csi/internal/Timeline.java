@@ -0,0 +1,239 @@
+package csi.internal;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Prices of one product indexed by id and by begin.
+ * Lookups by instant or period only visit prices which begin no earlier than the longest stored period
+ * before the requested one, so they stay logarithmic while periods are of comparable length.
+ * Not thread safe: a timeline shared between threads must not be changed once published, copy it instead.
+ */
+public class Timeline {
+
+    private static final Comparator<Price> BY_ID = Comparator.comparing(Price::getId);
+
+    private final NavigableMap<Long, Price> byId = new TreeMap<>();
+    private final NavigableMap<LocalDateTime, NavigableMap<Long, Price>> byBegin = new TreeMap<>();
+    private final NavigableMap<Long, Integer> lengthCounts = new TreeMap<>();
+    private Periods periods;
+
+    public Timeline() {
+    }
+
+    public Timeline(Collection<Price> prices) {
+        prices.forEach(this::put);
+    }
+
+    public Timeline(Timeline timeline) {
+        this.byId.putAll(timeline.byId);
+        timeline.byBegin.forEach((begin, sameBegin) -> this.byBegin.put(begin, new TreeMap<>(sameBegin)));
+        this.lengthCounts.putAll(timeline.lengthCounts);
+    }
+
+    public Price put(Price price) {
+        Price previous = remove(price.getId());
+        periods = null;
+        byId.put(price.getId(), price);
+        byBegin.computeIfAbsent(price.getBegin(), begin -> new TreeMap<>()).put(price.getId(), price);
+        lengthCounts.merge(lengthSeconds(price), 1, Integer::sum);
+        return previous;
+    }
+
+    public Price remove(Long id) {
+        Price removed = byId.remove(id);
+        if (removed != null) {
+            periods = null;
+            NavigableMap<Long, Price> sameBegin = byBegin.get(removed.getBegin());
+            sameBegin.remove(id);
+            if (sameBegin.isEmpty()) {
+                byBegin.remove(removed.getBegin());
+            }
+            lengthCounts.computeIfPresent(lengthSeconds(removed), (length, count) -> count == 1 ? null : count - 1);
+        }
+        return removed;
+    }
+
+    public Price get(Long id) {
+        return byId.get(id);
+    }
+
+    public boolean isEmpty() {
+        return byId.isEmpty();
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public Collection<Price> values() {
+        return Collections.unmodifiableCollection(byId.values());
+    }
+
+    public List<Price> startingAt(LocalDateTime begin) {
+        NavigableMap<Long, Price> sameBegin = byBegin.get(begin);
+        return sameBegin == null ? Collections.emptyList() : new ArrayList<>(sameBegin.values());
+    }
+
+    /**
+     * All prices in order of creation (by id), the order in which the merge rules pick candidates.
+     */
+    public List<Price> prices() {
+        return new ArrayList<>(byId.values());
+    }
+
+    public List<Price> chronological() {
+        List<Price> prices = new ArrayList<>(byId.size());
+        byBegin.values().forEach(sameBegin -> prices.addAll(sameBegin.values()));
+        return prices;
+    }
+
+    /**
+     * Prices with {@code begin <= instant < end}.
+     */
+    public List<Price> activeAt(LocalDateTime instant) {
+        List<Price> prices = new ArrayList<>();
+        candidates(instant, instant, true).forEach(sameBegin -> sameBegin.values().stream()
+                .filter(price -> price.getEnd().isAfter(instant))
+                .forEach(prices::add));
+        return prices;
+    }
+
+    /**
+     * Prices intersecting the half-open period {@code [from, to)}.
+     */
+    public List<Price> overlapping(LocalDateTime from, LocalDateTime to) {
+        List<Price> prices = new ArrayList<>();
+        candidates(from, to, false).forEach(sameBegin -> sameBegin.values().stream()
+                .filter(price -> price.getEnd().isAfter(from))
+                .forEach(prices::add));
+        return prices;
+    }
+
+    /**
+     * Prices sharing an instant with the closed period {@code [from, to]}, so touching it counts, ordered by id
+     * as {@link #prices} is. These are all the prices a merge of that period can change.
+     */
+    public List<Price> touching(LocalDateTime from, LocalDateTime to) {
+        List<Price> prices = new ArrayList<>();
+        candidates(from, to, true).forEach(sameBegin -> sameBegin.values().stream()
+                .filter(price -> !price.getEnd().isBefore(from))
+                .forEach(prices::add));
+        prices.sort(BY_ID);
+        return prices;
+    }
+
+    /**
+     * Primitive copy of the timeline for bulk lookups, built on first use and dropped by any change.
+     * Racing readers of a published timeline may each build one, they are equal and immutable.
+     */
+    Periods periods() {
+        Periods built = periods;
+        if (built == null) {
+            built = new Periods(chronological(), longestSeconds());
+            periods = built;
+        }
+        return built;
+    }
+
+    private Collection<NavigableMap<Long, Price>> candidates(LocalDateTime from, LocalDateTime to, boolean toInclusive) {
+        return byBegin.subMap(earliestBegin(from), true, to, toInclusive).values();
+    }
+
+    /**
+     * The longest period before {@code from}, or the earliest date-time if that is further back.
+     */
+    private LocalDateTime earliestBegin(LocalDateTime from) {
+        long longest = longestSeconds();
+        return ChronoUnit.SECONDS.between(LocalDateTime.MIN, from) <= longest ? LocalDateTime.MIN : from.minusSeconds(longest);
+    }
+
+    private long longestSeconds() {
+        return lengthCounts.isEmpty() ? 0 : lengthCounts.lastKey();
+    }
+
+    private static long lengthSeconds(Price price) {
+        return ChronoUnit.SECONDS.between(price.getBegin(), price.getEnd()) + 1;
+    }
+
+    /**
+     * Ids, begins, ends and amounts in units of the prices in chronological order. Periods which
+     * {@link EpochNanos} cannot pack exactly are not copied: such a timeline is {@linkplain #isExact not exact}
+     * and is looked up through its prices instead.
+     */
+    static final class Periods {
+
+        private final long[] ids;
+        private final long[] begins;
+        private final long[] ends;
+        private final long[] amounts;
+        private final long longestNanos;
+        private final boolean exact;
+
+        private Periods(List<Price> chronological, long longestSeconds) {
+            int size = chronological.size();
+            this.ids = new long[size];
+            this.begins = new long[size];
+            this.ends = new long[size];
+            this.amounts = new long[size];
+            boolean packed = true;
+            for (int i = 0; i < size && packed; i++) {
+                Price price = chronological.get(i);
+                packed = EpochNanos.isExact(price.getBegin()) && EpochNanos.isExact(price.getEnd());
+                if (packed) {
+                    ids[i] = price.getId();
+                    begins[i] = EpochNanos.of(price.getBegin());
+                    ends[i] = EpochNanos.of(price.getEnd());
+                    amounts[i] = price.getAmount().getUnits();
+                }
+            }
+            this.exact = packed;
+            this.longestNanos = longestSeconds < Long.MAX_VALUE / 1_000_000_000L ? longestSeconds * 1_000_000_000L : Long.MAX_VALUE;
+        }
+
+        boolean isExact() {
+            return exact;
+        }
+
+        /**
+         * Index of the active price which begins last, or -1. Searches for the last begin not after
+         * {@code instant}, a {@linkplain EpochNanos#floor floor}, and walks back no further than the longest period.
+         */
+        int effectiveAt(long instant) {
+            int low = 0;
+            int high = begins.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (begins[middle] <= instant) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            long earliestBegin = longestNanos == Long.MAX_VALUE || instant < Long.MIN_VALUE + longestNanos
+                    ? Long.MIN_VALUE
+                    : instant - longestNanos;
+            for (int i = low - 1; i >= 0 && begins[i] >= earliestBegin; i--) {
+                if (ends[i] > instant) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        long id(int index) {
+            return ids[index];
+        }
+
+        long amount(int index) {
+            return amounts[index];
+        }
+    }
+}
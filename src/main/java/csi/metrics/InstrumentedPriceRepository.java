@@ -0,0 +1,171 @@
+package csi.metrics;
+
+import csi.internal.Price;
+import csi.internal.PriceBook;
+import csi.internal.PriceRepository;
+import csi.internal.ProductKey;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import static csi.metrics.PriceMetric.*;
+
+/**
+ * Times every call to the wrapped repository. Lookups also record how many rows they returned,
+ * {@link #findAll} and {@link #findByBeginAndEnd} count as scans of the whole store.
+ */
+public class InstrumentedPriceRepository implements PriceRepository {
+
+    private final PriceRepository delegate;
+    private final PriceMetrics metrics;
+
+    public InstrumentedPriceRepository(PriceRepository delegate, PriceMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Collection<Price> findAll() {
+        long started = metrics.start();
+        Collection<Price> prices = delegate.findAll();
+        metrics.recordLatency(REPOSITORY_FIND_ALL, started);
+        metrics.increment(REPOSITORY_SCANS, 1);
+        return prices;
+    }
+
+    @Override
+    public Price findOne(Long id) {
+        long started = metrics.start();
+        Price price = delegate.findOne(id);
+        metrics.recordLatency(REPOSITORY_FIND_ONE, started);
+        return price;
+    }
+
+    @Override
+    public Price save(Price price) {
+        long started = metrics.start();
+        Price previous = delegate.save(price);
+        metrics.recordLatency(REPOSITORY_SAVE, started);
+        return previous;
+    }
+
+    @Override
+    public void delete(Price price) {
+        long started = metrics.start();
+        delegate.delete(price);
+        metrics.recordLatency(REPOSITORY_DELETE, started);
+    }
+
+    @Override
+    public void updateProduct(ProductKey key, Collection<Price> saved, Collection<Price> deleted) {
+        long started = metrics.start();
+        delegate.updateProduct(key, saved, deleted);
+        metrics.recordLatency(REPOSITORY_UPDATE_PRODUCT, started);
+    }
+
+    @Override
+    public void truncate() {
+        long started = metrics.start();
+        delegate.truncate();
+        metrics.recordLatency(REPOSITORY_TRUNCATE, started);
+    }
+
+    @Override
+    public void sync() {
+        long started = metrics.start();
+        delegate.sync();
+        metrics.recordLatency(REPOSITORY_SYNC, started);
+    }
+
+    @Override
+    public boolean isJournaled() {
+        return delegate.isJournaled();
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return delegate.isPersistent();
+    }
+
+    @Override
+    public List<Price> findByBeginAndEnd(LocalDateTime start, LocalDateTime end) {
+        long started = metrics.start();
+        List<Price> prices = delegate.findByBeginAndEnd(start, end);
+        metrics.recordLatency(REPOSITORY_FIND_BY_BEGIN_AND_END, started);
+        metrics.increment(REPOSITORY_SCANS, 1);
+        return lookup(prices);
+    }
+
+    @Override
+    public List<Price> findByCodeAndNumber(String code, Integer number) {
+        long started = metrics.start();
+        List<Price> prices = delegate.findByCodeAndNumber(code, number);
+        metrics.recordLatency(REPOSITORY_FIND_BY_CODE_AND_NUMBER, started);
+        return lookup(prices);
+    }
+
+    @Override
+    public List<Price> findByCodeNumberAndDepart(String code, Integer number, Integer depart) {
+        long started = metrics.start();
+        List<Price> prices = delegate.findByCodeNumberAndDepart(code, number, depart);
+        metrics.recordLatency(REPOSITORY_FIND_BY_CODE_NUMBER_AND_DEPART, started);
+        return lookup(prices);
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, LocalDateTime instant) {
+        long started = metrics.start();
+        List<Price> prices = delegate.findActiveAt(code, number, instant);
+        metrics.recordLatency(REPOSITORY_FIND_ACTIVE_AT, started);
+        return lookup(prices);
+    }
+
+    @Override
+    public List<Price> findActiveAt(String code, Integer number, Integer depart, LocalDateTime instant) {
+        long started = metrics.start();
+        List<Price> prices = delegate.findActiveAt(code, number, depart, instant);
+        metrics.recordLatency(REPOSITORY_FIND_ACTIVE_AT, started);
+        return lookup(prices);
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, LocalDateTime from, LocalDateTime to) {
+        long started = metrics.start();
+        List<Price> prices = delegate.findOverlapping(code, number, from, to);
+        metrics.recordLatency(REPOSITORY_FIND_OVERLAPPING, started);
+        return lookup(prices);
+    }
+
+    @Override
+    public List<Price> findOverlapping(String code, Integer number, Integer depart, LocalDateTime from, LocalDateTime to) {
+        long started = metrics.start();
+        List<Price> prices = delegate.findOverlapping(code, number, depart, from, to);
+        metrics.recordLatency(REPOSITORY_FIND_OVERLAPPING, started);
+        return lookup(prices);
+    }
+
+    @Override
+    public Set<ProductKey> findProductKeys() {
+        return delegate.findProductKeys();
+    }
+
+    @Override
+    public PriceBook materializeAt(LocalDateTime instant) {
+        long started = metrics.start();
+        PriceBook book = delegate.materializeAt(instant);
+        metrics.recordLatency(REPOSITORY_MATERIALIZE, started);
+        return book;
+    }
+
+    @Override
+    public Lock lockFor(ProductKey key) {
+        return delegate.lockFor(key);
+    }
+
+    private List<Price> lookup(List<Price> prices) {
+        metrics.recordValue(ROWS_RETURNED_PER_LOOKUP, prices.size());
+        return prices;
+    }
+}
@@ -0,0 +1,123 @@
+package csi.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Publishes {@link RecordingPriceMetrics} as the {@code csi:type=PriceMetrics} MBean. Every counter is an attribute,
+ * every histogram is shown as {@code <metric>Count}, {@code Mean}, {@code P50}, {@code P99}, {@code P999} and {@code Max}.
+ */
+public class JmxPriceMetrics extends RecordingPriceMetrics implements DynamicMBean {
+
+    public static final String OBJECT_NAME = "csi:type=PriceMetrics";
+
+    private static JmxPriceMetrics shared;
+
+    private final Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+
+    public JmxPriceMetrics() {
+        for (PriceMetric metric : PriceMetric.values()) {
+            String name = attributeName(metric);
+            if (metric.getKind() == PriceMetric.Kind.COUNTER) {
+                attributes.put(name, () -> counter(metric));
+            } else {
+                Histogram histogram = histogram(metric);
+                attributes.put(name + "Count", histogram::getCount);
+                attributes.put(name + "Mean", histogram::getMean);
+                attributes.put(name + "P50", () -> histogram.getPercentile(50));
+                attributes.put(name + "P99", () -> histogram.getPercentile(99));
+                attributes.put(name + "P999", () -> histogram.getPercentile(99.9));
+                attributes.put(name + "Max", histogram::getMax);
+            }
+        }
+    }
+
+    static synchronized JmxPriceMetrics shared() {
+        if (shared == null) {
+            JmxPriceMetrics metrics = new JmxPriceMetrics();
+            metrics.register(OBJECT_NAME);
+            shared = metrics;
+        }
+        return shared;
+    }
+
+    public void register(String objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(objectName));
+        } catch (JMException e) {
+            throw new IllegalStateException("Не удалось зарегистрировать метрики цен как " + objectName, e);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Supplier<Object> value = attributes.get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value.get();
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Метрики доступны только для чтения: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            Supplier<Object> value = attributes.get(name);
+            if (value != null) {
+                list.add(new Attribute(name, value.get()));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> infos = new ArrayList<>();
+        attributes.forEach((name, value) -> infos.add(new MBeanAttributeInfo(
+                name,
+                name.endsWith("Mean") ? "double" : "long",
+                name,
+                true,
+                false,
+                false
+        )));
+        return new MBeanInfo(getClass().getName(), "Метрики объединения цен",
+                infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+
+    private static String attributeName(PriceMetric metric) {
+        StringBuilder name = new StringBuilder();
+        for (String part : metric.name().toLowerCase().split("_")) {
+            name.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+        }
+        return name.toString();
+    }
+}
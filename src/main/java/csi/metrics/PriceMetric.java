@@ -0,0 +1,63 @@
+package csi.metrics;
+
+public enum PriceMetric {
+
+    ADD(Kind.LATENCY),
+    ADD_ALL(Kind.LATENCY),
+    SAVE(Kind.LATENCY),
+    SPLIT(Kind.LATENCY),
+    SPREAD(Kind.LATENCY),
+    REMOVE(Kind.LATENCY),
+    COMPACT(Kind.LATENCY),
+
+    REPOSITORY_FIND_ALL(Kind.LATENCY),
+    REPOSITORY_FIND_ONE(Kind.LATENCY),
+    REPOSITORY_SAVE(Kind.LATENCY),
+    REPOSITORY_DELETE(Kind.LATENCY),
+    REPOSITORY_UPDATE_PRODUCT(Kind.LATENCY),
+    REPOSITORY_TRUNCATE(Kind.LATENCY),
+    REPOSITORY_SYNC(Kind.LATENCY),
+    REPOSITORY_FIND_BY_BEGIN_AND_END(Kind.LATENCY),
+    REPOSITORY_FIND_BY_CODE_AND_NUMBER(Kind.LATENCY),
+    REPOSITORY_FIND_BY_CODE_NUMBER_AND_DEPART(Kind.LATENCY),
+    REPOSITORY_FIND_ACTIVE_AT(Kind.LATENCY),
+    REPOSITORY_FIND_OVERLAPPING(Kind.LATENCY),
+    REPOSITORY_MATERIALIZE(Kind.LATENCY),
+
+    MERGES_INSERTED(Kind.COUNTER),
+    MERGES_EXTENDED(Kind.COUNTER),
+    MERGES_TRIMMED(Kind.COUNTER),
+    MERGES_SPLIT(Kind.COUNTER),
+    MERGES_DELETED(Kind.COUNTER),
+    REPOSITORY_SCANS(Kind.COUNTER),
+    COMPACTION_RECLAIMED(Kind.COUNTER),
+    LISTENER_FAILURES(Kind.COUNTER),
+
+    /**
+     * Rows a lookup returned, not the rows the store examined to find them.
+     */
+    ROWS_RETURNED_PER_LOOKUP(Kind.VALUES),
+    TIMELINE_LENGTH(Kind.VALUES);
+
+    public enum Kind {
+        /**
+         * Durations in nanoseconds.
+         */
+        LATENCY,
+        COUNTER,
+        /**
+         * Distribution of sizes.
+         */
+        VALUES
+    }
+
+    private final Kind kind;
+
+    PriceMetric(Kind kind) {
+        this.kind = kind;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+}
@@ -0,0 +1,61 @@
+package csi.metrics;
+
+/**
+ * Where the merge engine reports its metrics. Call sites take {@link #start()} before the measured code
+ * and pass it to {@link #recordLatency}; when disabled both are empty, so instrumentation costs no clock reads.
+ */
+public interface PriceMetrics {
+
+    String TYPE_PROPERTY = "csi.price.metrics";
+
+    PriceMetrics DISABLED = new PriceMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public long start() {
+            return 0;
+        }
+
+        @Override
+        public void recordLatency(PriceMetric metric, long started) {
+        }
+
+        @Override
+        public void increment(PriceMetric metric, long delta) {
+        }
+
+        @Override
+        public void recordValue(PriceMetric metric, long value) {
+        }
+    };
+
+    boolean isEnabled();
+
+    long start();
+
+    void recordLatency(PriceMetric metric, long started);
+
+    void increment(PriceMetric metric, long delta);
+
+    void recordValue(PriceMetric metric, long value);
+
+    /**
+     * Metrics selected by the {@value #TYPE_PROPERTY} system property: {@code none} (default),
+     * {@code memory} or {@code jmx}.
+     */
+    static PriceMetrics configured() {
+        switch (System.getProperty(TYPE_PROPERTY, "none")) {
+            case "none":
+                return DISABLED;
+            case "memory":
+                return new RecordingPriceMetrics();
+            case "jmx":
+                return JmxPriceMetrics.shared();
+            default:
+                throw new IllegalArgumentException("Неизвестный тип метрик: " + System.getProperty(TYPE_PROPERTY));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package csi.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps every metric in memory: a {@link Histogram} per latency or value metric and an adder per counter.
+ */
+public class RecordingPriceMetrics implements PriceMetrics {
+
+    private final Histogram[] histograms = new Histogram[PriceMetric.values().length];
+    private final LongAdder[] counters = new LongAdder[PriceMetric.values().length];
+
+    public RecordingPriceMetrics() {
+        for (PriceMetric metric : PriceMetric.values()) {
+            if (metric.getKind() == PriceMetric.Kind.COUNTER) {
+                counters[metric.ordinal()] = new LongAdder();
+            } else {
+                histograms[metric.ordinal()] = new Histogram();
+            }
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public long start() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void recordLatency(PriceMetric metric, long started) {
+        histograms[metric.ordinal()].record(System.nanoTime() - started);
+    }
+
+    @Override
+    public void increment(PriceMetric metric, long delta) {
+        counters[metric.ordinal()].add(delta);
+    }
+
+    @Override
+    public void recordValue(PriceMetric metric, long value) {
+        histograms[metric.ordinal()].record(value);
+    }
+
+    public Histogram histogram(PriceMetric metric) {
+        if (metric.getKind() == PriceMetric.Kind.COUNTER) {
+            throw new IllegalArgumentException("Метрика " + metric + " является счётчиком");
+        }
+        return histograms[metric.ordinal()];
+    }
+
+    public long counter(PriceMetric metric) {
+        if (metric.getKind() != PriceMetric.Kind.COUNTER) {
+            throw new IllegalArgumentException("Метрика " + metric + " не является счётчиком");
+        }
+        return counters[metric.ordinal()].sum();
+    }
+}
@@ -0,0 +1,77 @@
+package csi.business;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs {@code main} of a test class path class in a separate JVM, for tests which need another process:
+ * a shard behind a socket or a writer killed in the middle of its work.
+ */
+final class JavaProcess implements AutoCloseable {
+
+    private final Process process;
+    private final BufferedReader output;
+
+    private JavaProcess(Process process) {
+        this.process = process;
+        this.output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+    }
+
+    static JavaProcess start(Class<?> mainClass, String... args) throws IOException {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                mainClass.getName()
+        ));
+        command.addAll(Arrays.asList(args));
+        return new JavaProcess(new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start());
+    }
+
+    /**
+     * Starts a writer which prints the id of every price once it is acknowledged, reads {@code count} ids
+     * and kills the writer with SIGKILL. Fewer ids come back if the writer exits on its own.
+     */
+    static List<Long> acknowledgedBeforeKill(int count, Class<?> writer, String... args) throws Exception {
+        List<Long> acknowledged = new ArrayList<>();
+        try (JavaProcess process = start(writer, args)) {
+            String line;
+            while (acknowledged.size() < count && (line = process.readLine()) != null) {
+                acknowledged.add(Long.valueOf(line));
+            }
+        }
+        return acknowledged;
+    }
+
+    /**
+     * Next line the process printed, {@code null} once it exited.
+     */
+    String readLine() throws IOException {
+        return output.readLine();
+    }
+
+    /**
+     * Kills the process with SIGKILL, so it gets no chance to flush or clean up, and waits until it is gone.
+     */
+    void kill() throws InterruptedException {
+        process.destroyForcibly().waitFor();
+    }
+
+    /**
+     * Kills the process; an interrupt while waiting for it is kept in the thread's flag.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            kill();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            output.close();
+        }
+    }
+}
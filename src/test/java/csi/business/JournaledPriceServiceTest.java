@@ -0,0 +1,244 @@
+package csi.business;
+
+import csi.internal.JournaledPriceRepository;
+import csi.internal.OffHeapPriceRepository;
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import csi.internal.PriceRepository;
+import csi.internal.PriceRepositoryImpl;
+import csi.internal.ProductKey;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JournaledPriceServiceTest extends PriceServiceTest {
+
+    private Path directory;
+    private JournaledPriceRepository journaled;
+
+    @Override
+    protected PriceRepository createRepository() {
+        try {
+            directory = Files.createTempDirectory("journal");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        journaled = new JournaledPriceRepository(new OffHeapPriceRepository(4), directory);
+        return journaled;
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        journaled.truncate();
+        try {
+            journaled.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    public void willReplayMergesAfterReopen() throws Exception {
+        PriceService journaledService = new PriceServiceImpl(journaled);
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        List<Future<?>> adds = new ArrayList<>();
+        for (int product = 0; product < 8; product++) {
+            int number = product;
+            adds.add(clients.submit(() -> {
+                for (int day = 0; day < 50; day++) {
+                    journaledService.add(price(number, day, 2, 100 + day % 3));
+                }
+                journaledService.add(price(number, 10, 20, 500));
+            }));
+        }
+        for (Future<?> add : adds) {
+            add.get();
+        }
+        clients.shutdown();
+        List<String> before = timelines(journaled);
+
+        reopen();
+
+        assertEquals(before, timelines(journaled));
+    }
+
+    @Test
+    public void willDropTornEntryAtEndOfJournal() throws IOException {
+        PriceService journaledService = new PriceServiceImpl(journaled);
+        Price kept = price(1, 0, 5, 100);
+        journaledService.add(kept);
+        journaledService.add(price(1, 2, 1, 200));
+        journaled.close();
+        Path journal = directory.resolve("journal.log");
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        reopen();
+
+        assertEquals(1, journaled.findAll().size());
+        assertEquals(kept.getEnd(), journaled.findOne(kept.getId()).getEnd());
+        new PriceServiceImpl(journaled).add(price(2, 0, 1, 300));
+        reopen();
+        assertEquals(2, journaled.findAll().size());
+    }
+
+    @Test
+    public void willRestoreCheckpointAndReplayJournalAfterIt() throws IOException {
+        PriceService journaledService = new PriceServiceImpl(journaled);
+        journaledService.add(price(1, 0, 10, 100));
+        journaled.checkpoint();
+        journaledService.add(price(1, 3, 2, 150));
+        List<String> before = timelines(journaled);
+
+        reopen();
+
+        assertEquals(before, timelines(journaled));
+        assertEquals(3, journaled.findAll().size());
+    }
+
+    @Test
+    public void willCheckpointWhenJournalGrowsPastLimit() throws IOException {
+        journaled.close();
+        journaled = new JournaledPriceRepository(new OffHeapPriceRepository(4), directory, 1);
+        PriceService journaledService = new PriceServiceImpl(journaled);
+        journaledService.add(price(1, 0, 10, 100));
+        journaledService.add(price(1, 3, 2, 150));
+        List<String> before = timelines(journaled);
+
+        assertTrue(Files.exists(directory.resolve("prices.snapshot")));
+        assertEquals(0, Files.size(directory.resolve("journal.log")));
+        reopen();
+        assertEquals(before, timelines(journaled));
+    }
+
+    @Test
+    public void willReportFailedCheckpointWithoutFailingMerge() throws IOException {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        journaled.close();
+        journaled = new JournaledPriceRepository(new PriceRepositoryImpl() {
+            @Override
+            public Set<ProductKey> findProductKeys() {
+                if (failing.get()) {
+                    throw new IllegalStateException("Снимок не записан");
+                }
+                return super.findProductKeys();
+            }
+        }, directory, 1);
+        PriceService journaledService = new PriceServiceImpl(journaled);
+        List<Throwable> reported = new ArrayList<>();
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler((failed, e) -> reported.add(e));
+        Price price = price(1, 0, 10, 100);
+        try {
+            journaledService.add(price);
+            failing.set(false);
+            journaledService.add(price(1, 3, 2, 150));
+        } finally {
+            thread.setUncaughtExceptionHandler(handler);
+        }
+
+        assertEquals(1, reported.size());
+        assertEquals(3, journaled.findAll().size());
+        assertTrue(Files.exists(directory.resolve("prices.snapshot")));
+        assertEquals(0, Files.size(directory.resolve("journal.log")));
+    }
+
+    @Test
+    public void willCheckpointPricesInAnyCurrencyAndAtAnyDate() throws IOException {
+        journaled.close();
+        journaled = new JournaledPriceRepository(new PriceRepositoryImpl(), directory, 1);
+        PriceService journaledService = new PriceServiceImpl(journaled);
+        Price inDollars = new Price("journaled", 1, 2, LocalDateTime.of(2024, 1, 1, 0, 0), LocalDateTime.of(2024, 2, 1, 0, 0),
+                new PositiveAmount(new BigDecimal("9.99"), Currency.getInstance("USD")));
+        Price subMicro = new Price("journaled", 2, 2, LocalDateTime.of(2300, 1, 1, 0, 0, 0, 1), LocalDateTime.MAX,
+                new PositiveAmount(100));
+        journaledService.add(inDollars);
+        journaledService.add(subMicro);
+        List<String> before = timelines(journaled);
+
+        assertEquals(0, Files.size(directory.resolve("journal.log")));
+        journaled.close();
+        journaled = new JournaledPriceRepository(new PriceRepositoryImpl(), directory);
+
+        assertEquals(before, timelines(journaled));
+        assertEquals(inDollars.getAmount(), journaled.findOne(inDollars.getId()).getAmount());
+        assertEquals(subMicro.getBegin(), journaled.findOne(subMicro.getId()).getBegin());
+    }
+
+    /*
+    A separate JVM adds prices and reports each one after add returns, then gets killed with SIGKILL.
+    */
+    @Test
+    public void willKeepAcknowledgedMergesWhenKilled() throws Exception {
+        journaled.close();
+        List<Long> acknowledged = JavaProcess.acknowledgedBeforeKill(500, Writer.class, directory.toString());
+
+        journaled = new JournaledPriceRepository(new OffHeapPriceRepository(4), directory);
+
+        assertEquals(500, acknowledged.size());
+        for (Long id : acknowledged) {
+            assertNotNull("Price " + id + " is lost", journaled.findOne(id));
+        }
+    }
+
+    private void reopen() throws IOException {
+        journaled.close();
+        journaled = new JournaledPriceRepository(new OffHeapPriceRepository(4), directory);
+    }
+
+    private static List<String> timelines(PriceRepository repository) {
+        List<String> timelines = new ArrayList<>();
+        repository.findAll().stream()
+                .sorted(Comparator.comparing(Price::getId))
+                .forEach(price -> timelines.add(price.getId() + " " + price.getNumber() + " " + price.getBegin() + " "
+                        + price.getEnd() + " " + price.getAmount().getValue().stripTrailingZeros().toPlainString()));
+        return timelines;
+    }
+
+    private static Price price(int number, int day, int days, int amount) {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        return new Price("journaled", number, 2, start.plusDays(day), start.plusDays(day + days), new PositiveAmount(amount));
+    }
+
+    public static class Writer {
+
+        public static void main(String[] args) {
+            PriceService service = new PriceServiceImpl(
+                    new JournaledPriceRepository(new OffHeapPriceRepository(), new File(args[0]).toPath()));
+            for (int day = 0; ; day++) {
+                Price price = price(day % 10, day, 1, 100 + day % 7);
+                service.add(price);
+                System.out.println(price.getId());
+            }
+        }
+    }
+}
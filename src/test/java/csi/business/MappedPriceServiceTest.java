@@ -0,0 +1,181 @@
+package csi.business;
+
+import csi.internal.MappedPriceRepository;
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import csi.internal.PriceIdAllocator;
+import csi.internal.PriceRepository;
+import csi.internal.SequentialIdAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MappedPriceServiceTest extends PriceServiceTest {
+
+    private Path directory;
+    private MappedPriceRepository mapped;
+
+    @Override
+    protected PriceRepository createRepository() {
+        try {
+            directory = Files.createTempDirectory("prices");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        mapped = new MappedPriceRepository(directory);
+        return mapped;
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        deleteFiles();
+    }
+
+    private void deleteFiles() {
+        try {
+            mapped.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    public void willServePricesAfterReopen() throws IOException {
+        Price first = price(0, 100);
+        Price second = price(1, 200);
+        Price deleted = price(2, 300);
+        mapped.save(first);
+        mapped.save(second);
+        mapped.save(deleted);
+        mapped.save(first.withUpdatedDuration(first.getBegin(), second.getBegin()));
+        mapped.delete(deleted);
+        mapped.close();
+
+        mapped = new MappedPriceRepository(directory);
+
+        assertEquals(2, mapped.findAll().size());
+        assertEquals(second.getBegin(), mapped.findOne(first.getId()).getEnd());
+        assertNull(mapped.findOne(deleted.getId()));
+        assertEquals(1, mapped.findActiveAt("mapped", 1, second.getBegin()).size());
+    }
+
+    @Test
+    public void willResumeIdsAfterReopen() throws IOException {
+        Price saved = price(0, 100);
+        mapped.save(saved);
+        mapped.close();
+        PriceIdAllocator previous = Price.useIdAllocator(new SequentialIdAllocator());
+        try {
+            mapped = new MappedPriceRepository(directory);
+
+            assertTrue(price(1, 200).getId() > saved.getId());
+        } finally {
+            Price.useIdAllocator(previous);
+        }
+    }
+
+    @Test
+    public void willKeepDepartmentsApartAfterReopen() throws IOException {
+        Price price = price(0, 100);
+        Price otherDepart = new Price("mapped", 1, 7, price.getBegin(), price.getEnd(), new PositiveAmount(150));
+        mapped.save(price);
+        mapped.save(otherDepart);
+        mapped.close();
+
+        mapped = new MappedPriceRepository(directory);
+
+        assertEquals(2, mapped.findByCodeAndNumber("mapped", 1).size());
+        assertEquals(otherDepart.getId(), mapped.findByCodeNumberAndDepart("mapped", 1, 7).get(0).getId());
+        assertEquals(price.getId(), mapped.findActiveAt("mapped", 1, price.getDepart(), price.getBegin()).get(0).getId());
+    }
+
+    @Test
+    public void willKeepPricesAfterCompaction() throws IOException {
+        Price price = price(0, 100);
+        for (int day = 1; day < 100; day++) {
+            mapped.save(price.withUpdatedDuration(price.getBegin(), price.getEnd().plusDays(day)));
+        }
+        mapped.save(price(5, 200));
+        mapped.compact();
+        mapped.close();
+
+        mapped = new MappedPriceRepository(directory);
+
+        assertEquals(2, mapped.findAll().size());
+        assertEquals(price.getEnd().plusDays(99), mapped.findOne(price.getId()).getEnd());
+    }
+
+    @Test
+    public void willKeepTimelineWhenMergeCannotBeStored() throws IOException {
+        Price stored = price(2, 100);
+        Price inDollars = new Price("mapped", 1, 2, stored.getBegin().minusDays(1), stored.getEnd().plusDays(1),
+                new PositiveAmount(BigDecimal.TEN, Currency.getInstance("USD")));
+        PriceService mappedService = new PriceServiceImpl(mapped);
+        mappedService.add(stored);
+
+        try {
+            mappedService.add(inDollars);
+            fail("Цена в другой валюте не может храниться в файле");
+        } catch (IllegalArgumentException expected) {
+            // rejected before a record was appended
+        }
+        mapped.close();
+        mapped = new MappedPriceRepository(directory);
+
+        assertEquals(1, mapped.findAll().size());
+        assertEquals(stored.getEnd(), mapped.findOne(stored.getId()).getEnd());
+    }
+
+    /*
+    A separate JVM saves prices and reports each one after save returns, then gets killed with SIGKILL.
+    */
+    @Test
+    public void willKeepAcknowledgedPricesWhenKilled() throws Exception {
+        mapped.close();
+        List<Long> acknowledged = JavaProcess.acknowledgedBeforeKill(2000, Writer.class, directory.toString());
+
+        mapped = new MappedPriceRepository(directory);
+
+        assertEquals(2000, acknowledged.size());
+        for (Long id : acknowledged) {
+            assertNotNull("Price " + id + " is lost", mapped.findOne(id));
+        }
+    }
+
+    private static Price price(int day, int amount) {
+        LocalDateTime start = LocalDateTime.now();
+        return new Price("mapped", 1, 2, start.plusDays(day), start.plusDays(day + 1), new PositiveAmount(amount));
+    }
+
+    public static class Writer {
+
+        public static void main(String[] args) {
+            MappedPriceRepository repository = new MappedPriceRepository(new File(args[0]).toPath());
+            for (int day = 0; ; day++) {
+                Price price = price(day, 100 + day % 7);
+                repository.save(price);
+                System.out.println(price.getId());
+            }
+        }
+    }
+}
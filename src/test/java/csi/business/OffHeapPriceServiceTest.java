@@ -0,0 +1,44 @@
+package csi.business;
+
+import csi.internal.OffHeapPriceRepository;
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import csi.internal.PriceRepository;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Currency;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OffHeapPriceServiceTest extends PriceServiceTest {
+
+    private OffHeapPriceRepository offHeap;
+
+    @Override
+    protected PriceRepository createRepository() {
+        offHeap = new OffHeapPriceRepository(4);
+        return offHeap;
+    }
+
+    @Test
+    public void willKeepTimelineWhenMergeCannotBeStored() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        Price stored = new Price("offheap", 1, 2, start.plusDays(2), start.plusDays(3), new PositiveAmount(100));
+        Price inDollars = new Price("offheap", 1, 2, start.plusDays(1), start.plusDays(4),
+                new PositiveAmount(BigDecimal.TEN, Currency.getInstance("USD")));
+        PriceService offHeapService = new PriceServiceImpl(offHeap);
+        offHeapService.add(stored);
+
+        try {
+            offHeapService.add(inDollars);
+            fail("Цена в другой валюте не может храниться вне кучи");
+        } catch (IllegalArgumentException expected) {
+            // rejected before anything changed
+        }
+
+        assertEquals(1, offHeap.findAll().size());
+        assertEquals(stored.getEnd(), offHeap.findOne(stored.getId()).getEnd());
+    }
+}
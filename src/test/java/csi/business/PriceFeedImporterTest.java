@@ -0,0 +1,64 @@
+package csi.business;
+
+import csi.internal.PriceRepository;
+import csi.internal.PriceRepositoryImpl;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PriceFeedImporterTest {
+
+    private PriceRepository repository = new PriceRepositoryImpl();
+    private PriceService service = new PriceServiceImpl(repository);
+
+    @After
+    public void tearDown() {
+        repository.truncate();
+    }
+
+    /*
+    Feed:
+    |-------200-------|
+          |-150-|
+    |---190---|          (another product)
+    After:
+    |-200-|-150-|-200-|
+    */
+    @Test
+    public void willImportFeedInBatches() throws IOException {
+        String feed = "# productCode;number;depart;begin;end;amount\n" +
+                "code;1;2;2018-06-01T00:00;2018-07-01T00:00;200\r\n" +
+                "\n" +
+                "another;1;2;2018-06-01T00:00:00;2018-06-15T00:00:00.5;190.90\n" +
+                "code;1;2;2018-06-10T00:00;2018-06-20T00:00;150.00";
+
+        FeedImportResult result = new PriceFeedImporter(service, 64, 2, false)
+                .importFrom(Channels.newChannel(new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8))));
+
+        assertEquals(3, result.getRows());
+        assertEquals(3, result.getMergeResult().getInserted());
+        assertEquals(1, result.getMergeResult().getSplit());
+        assertEquals(4, service.findAll().size());
+        assertEquals(new BigDecimal("190.90"), service.findByBeginAndEnd(
+                LocalDateTime.of(2018, 6, 1, 0, 0),
+                LocalDateTime.of(2018, 6, 15, 0, 0, 0, 500_000_000)
+        ).get(0).getAmount().getValue());
+        assertFalse(service.findByBeginAndEnd(LocalDateTime.of(2018, 6, 20, 0, 0), LocalDateTime.of(2018, 7, 1, 0, 0)).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotImportLineLongerThanBuffer() throws IOException {
+        String feed = "code;1;2;2018-06-01T00:00;2018-07-01T00:00;200\n";
+
+        new PriceFeedImporter(service, 16, 2, false)
+                .importFrom(Channels.newChannel(new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8))));
+    }
+}
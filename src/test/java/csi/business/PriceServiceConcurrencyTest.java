@@ -0,0 +1,135 @@
+package csi.business;
+
+import csi.internal.BlockIdAllocator;
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import csi.internal.PriceRepository;
+import csi.internal.PriceRepositoryImpl;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PriceServiceConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int DAYS = 2000;
+    private static final String[] CODES = {"first", "second", "third"};
+
+    private PriceRepository repository = new PriceRepositoryImpl();
+    private PriceService service = new PriceServiceImpl(repository);
+
+    @After
+    public void tearDown() {
+        repository.truncate();
+    }
+
+    /*
+    Every thread adds its own days of the same products in random order:
+    |-1-|     |-3-|-3-|     |-2-|
+        |-2-|         |-1-|
+    Together they must cover every day without differently priced overlaps.
+    */
+    @Test
+    public void willKeepTimelinesConsistentUnderConcurrentAdds() throws Exception {
+        LocalDateTime start = LocalDateTime.now().withNano(0);
+        List<List<Price>> pricesByThread = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            pricesByThread.add(new ArrayList<>());
+        }
+        Random random = new Random(42);
+        for (String code : CODES) {
+            for (int day = 0; day < DAYS; day++) {
+                pricesByThread.get(random.nextInt(THREADS)).add(new Price(
+                        code,
+                        1,
+                        2,
+                        start.plusDays(day),
+                        start.plusDays(day + 1),
+                        new PositiveAmount(100 * (1 + random.nextInt(3)))
+                ));
+            }
+        }
+        pricesByThread.forEach(prices -> Collections.shuffle(prices, random));
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch ready = new CountDownLatch(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (List<Price> prices : pricesByThread) {
+            futures.add(executor.submit(() -> {
+                ready.countDown();
+                ready.await();
+                prices.forEach(service::add);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        for (String code : CODES) {
+            for (int day = 0; day < DAYS; day++) {
+                assertFalse("Day " + day + " of " + code + " is lost",
+                        repository.findActiveAt(code, 1, start.plusDays(day).plusHours(12)).isEmpty());
+            }
+            List<Price> prices = repository.findByCodeAndNumber(code, 1);
+            for (Price price : prices) {
+                for (Price another : prices) {
+                    boolean overlaps = price.getBegin().isBefore(another.getEnd()) && another.getBegin().isBefore(price.getEnd());
+                    assertFalse("Prices " + price.getId() + " and " + another.getId() + " of " + code + " overlap",
+                            price != another && overlaps && !price.haveSameAmountWith(another));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void willAllocateUniqueIdsFromBlocks() throws Exception {
+        BlockIdAllocator allocator = new BlockIdAllocator(16);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<long[]>> allocated = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                allocated.add(executor.submit(() -> {
+                    long[] ids = new long[10_000];
+                    for (int j = 0; j < ids.length; j++) {
+                        ids[j] = allocator.nextId();
+                        if (j == 5_000) {
+                            allocator.reserveAbove(1_000_000);
+                        }
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> unique = new HashSet<>();
+            for (Future<long[]> ids : allocated) {
+                long[] threadIds = ids.get(30, TimeUnit.SECONDS);
+                for (int j = 0; j < threadIds.length; j++) {
+                    assertTrue(unique.add(threadIds[j]));
+                    if (j > 0 && threadIds[j] <= threadIds[j - 1]) {
+                        fail("Ids of one thread must grow");
+                    }
+                }
+                assertTrue(threadIds[threadIds.length - 1] > 1_000_000);
+            }
+            assertEquals(THREADS * 10_000, unique.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
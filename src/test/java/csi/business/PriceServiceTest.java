@@ -2,11 +2,33 @@ package csi.business;
 
 import csi.internal.PositiveAmount;
 import csi.internal.Price;
+import csi.internal.PriceBook;
 import csi.internal.PriceRepository;
+import csi.internal.PriceQuery;
 import csi.internal.PriceRepositoryImpl;
+import csi.internal.PriceSnapshots;
+import csi.internal.ProductKey;
+import csi.metrics.PriceMetric;
+import csi.metrics.RecordingPriceMetrics;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.Period;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
 
 import org.junit.After;
 import org.junit.Test;
@@ -15,8 +37,8 @@ import static org.junit.Assert.*;
 
 public class PriceServiceTest {
 
-    private PriceService service = new PriceServiceImpl();
-    private PriceRepository repository = new PriceRepositoryImpl();
+    private PriceRepository repository = createRepository();
+    private PriceService service = new PriceServiceImpl(repository);
 
     private static final Price price = new Price(
             "code",
@@ -43,6 +65,10 @@ public class PriceServiceTest {
             new PositiveAmount(190)
     );
 
+    protected PriceRepository createRepository() {
+        return new PriceRepositoryImpl();
+    }
+
     @After
     public void tearDown() {
         repository.truncate();
@@ -76,6 +102,11 @@ public class PriceServiceTest {
         service.add(withZeroAmount);
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotMakeAmountFinerThanFixedPoint() {
+        new PositiveAmount(new BigDecimal("199.99999"));
+    }
+
     /*
     Before:
     nothing
@@ -376,4 +407,634 @@ public class PriceServiceTest {
         assertEquals("Prices count does not match", 1, prices.size());
         assertFalse(service.findByBeginAndEnd(first.getBegin(), fifth.getEnd()).isEmpty());
     }
-}
\ No newline at end of file
+
+    /*
+    |-210-|---150---|-190-|
+             ^
+    */
+    @Test
+    public void willFindPriceActiveAtInstant() {
+        LocalDateTime middleStart = LocalDateTime.now().minusDays(2);
+        LocalDateTime middleEnd = LocalDateTime.now().plusDays(2);
+        Price newPrice = new Price(
+                "code",
+                1,
+                2,
+                middleStart,
+                middleEnd,
+                new PositiveAmount(150)
+        );
+        service.add(firstPrice);
+        service.add(secondPrice);
+        service.add(newPrice);
+
+        assertEquals(newPrice.getId(), repository.findActiveAt("code", 1, middleStart).get(0).getId());
+        assertEquals(1, repository.findActiveAt("code", 1, middleEnd.minusDays(1)).size());
+        assertEquals(firstPrice.getId(), repository.findActiveAt("code", 1, middleStart.minusDays(1)).get(0).getId());
+        assertTrue(repository.findActiveAt("code", 1, secondPrice.getEnd()).isEmpty());
+        assertTrue(repository.findActiveAt("code", 2, middleStart).isEmpty());
+    }
+
+    /*
+    |-210-|---150---|-190-|
+           ^  ^  ^
+    */
+    @Test
+    public void willCacheEffectivePriceUntilMerge() {
+        PriceServiceImpl service = new PriceServiceImpl(repository, ForkJoinPool.commonPool(), new EffectivePriceCache(10));
+        LocalDateTime middleStart = LocalDateTime.now().minusDays(2);
+        LocalDateTime middleEnd = LocalDateTime.now().plusDays(2);
+        service.add(firstPrice);
+        service.add(secondPrice);
+
+        assertEquals(firstPrice.getId(), service.findEffective("code", 1, middleStart).getId());
+        assertEquals(firstPrice.getId(), service.findEffective("code", 1, middleStart.plusHours(1)).getId());
+        assertNull(service.findEffective("code", 2, middleStart));
+
+        Price newPrice = new Price(
+                "code",
+                1,
+                2,
+                middleStart,
+                middleEnd,
+                new PositiveAmount(150)
+        );
+        service.add(newPrice);
+
+        assertEquals(newPrice.getId(), service.findEffective("code", 1, middleStart.plusHours(1)).getId());
+        assertEquals(newPrice.getId(), service.findEffective("code", 1, middleEnd.minusHours(1)).getId());
+        assertEquals(secondPrice.getId(), service.findEffective("code", 1, middleEnd).getId());
+        assertEquals(2, service.getEffectivePriceCache().getHits());
+        assertEquals(4, service.getEffectivePriceCache().getMisses());
+    }
+
+    @Test
+    public void willRecordMergeMetrics() {
+        RecordingPriceMetrics metrics = new RecordingPriceMetrics();
+        PriceService service = new PriceServiceImpl(repository, ForkJoinPool.commonPool(), new EffectivePriceCache(10), metrics);
+        Price newPrice = new Price(
+                "code",
+                1,
+                2,
+                LocalDateTime.now().minusDays(2),
+                LocalDateTime.now().plusDays(2),
+                new PositiveAmount(150)
+        );
+        service.add(price);
+        service.add(newPrice);
+
+        assertEquals(2, metrics.histogram(PriceMetric.ADD).getCount());
+        assertEquals(2, metrics.counter(PriceMetric.MERGES_INSERTED));
+        assertEquals(1, metrics.counter(PriceMetric.MERGES_SPLIT));
+        assertEquals(1, metrics.histogram(PriceMetric.TIMELINE_LENGTH).getMax());
+        assertEquals(2, metrics.histogram(PriceMetric.REPOSITORY_FIND_BY_CODE_NUMBER_AND_DEPART).getCount());
+        assertTrue(metrics.histogram(PriceMetric.SPLIT).getPercentile(99) > 0);
+        assertEquals(repository.isJournaled() ? 2 : 0, metrics.histogram(PriceMetric.REPOSITORY_SYNC).getCount());
+    }
+
+    /*
+    |-210-|---150---|-190-|
+       [--------)
+    */
+    @Test
+    public void willFindPricesOverlappingPeriod() {
+        LocalDateTime middleStart = LocalDateTime.now().minusDays(2);
+        LocalDateTime middleEnd = LocalDateTime.now().plusDays(2);
+        Price newPrice = new Price(
+                "code",
+                1,
+                2,
+                middleStart,
+                middleEnd,
+                new PositiveAmount(150)
+        );
+        service.add(firstPrice);
+        service.add(secondPrice);
+        service.add(newPrice);
+
+        assertEquals(2, repository.findOverlapping("code", 1, middleStart.minusDays(1), middleEnd).size());
+        assertEquals(3, repository.findOverlapping("code", 1, middleStart.minusDays(1), middleEnd.plusDays(1)).size());
+        assertTrue(repository.findOverlapping("code", 1, secondPrice.getEnd(), secondPrice.getEnd().plusDays(1)).isEmpty());
+    }
+
+    /*
+    Before:
+    |--210--|-180-|---190---|   |-200-|
+    After:
+    |-210-|---140---|--190--|   |-----200-----|
+    */
+    @Test
+    public void willAddAllAsIfAddedOneByOne() {
+        LocalDateTime now = LocalDateTime.now();
+        for (Price newPrice : importedPrices(now)) {
+            service.add(newPrice);
+        }
+        Set<String> addedOneByOne = periods(service.findAll());
+        repository.truncate();
+
+        MergeResult result = service.addAll(importedPrices(now));
+
+        assertEquals(addedOneByOne, periods(service.findAll()));
+        assertEquals(5, result.getInserted());
+        assertEquals(1, result.getExtended());
+        assertEquals(5, result.getTrimmed());
+        assertEquals(1, result.getDeleted());
+    }
+
+    @Test
+    public void willAddAllInParallelAsIfAddedOneByOne() {
+        LocalDateTime now = LocalDateTime.now();
+        List<Price> newPrices = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String suffix = String.valueOf(i);
+            importedPrices(now).forEach(price -> newPrices.add(copyOf(price, price.getProductCode() + suffix)));
+        }
+        newPrices.forEach(service::add);
+        Set<String> addedOneByOne = periods(service.findAll());
+        repository.truncate();
+
+        ForkJoinPool importPool = new ForkJoinPool(4);
+        MergeResult result;
+        try {
+            result = new PriceServiceImpl(repository, importPool).addAllInParallel(newPrices.stream()
+                    .map(price -> copyOf(price, price.getProductCode()))
+                    .collect(Collectors.toList()));
+        } finally {
+            importPool.shutdown();
+        }
+
+        assertEquals(addedOneByOne, periods(service.findAll()));
+        assertEquals(newPrices.size(), result.getInserted() + result.getExtended());
+    }
+
+    @Test
+    public void willSubmitAsIfAddedOneByOne() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        List<Price> newPrices = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String suffix = "-" + i;
+            importedPrices(now).forEach(price -> newPrices.add(copyOf(price, price.getProductCode() + suffix)));
+        }
+        newPrices.forEach(service::add);
+        Set<String> addedOneByOne = periods(service.findAll());
+        repository.truncate();
+
+        MergeResult result = new MergeResult();
+        try (PriceIngestPipeline pipeline = new PriceServiceImpl(repository).openPipeline(4, 8)) {
+            List<CompletableFuture<MergeResult>> submitted = new ArrayList<>();
+            newPrices.forEach(price -> submitted.add(pipeline.submit(copyOf(price, price.getProductCode()))));
+            for (CompletableFuture<MergeResult> future : submitted) {
+                result.add(future.get(10, TimeUnit.SECONDS));
+            }
+        }
+
+        assertEquals(addedOneByOne, periods(service.findAll()));
+        assertEquals(newPrices.size(), result.getInserted() + result.getExtended());
+    }
+
+    @Test
+    public void willNotServeCachedPriceOfProductWhereAnotherDepartmentBegins() {
+        LocalDateTime start = LocalDateTime.now().withNano(0);
+        service.add(new Price("code", 1, 1, start, start.plusHours(100), new PositiveAmount(100)));
+        service.add(new Price("code", 1, 2, start.plusHours(50), start.plusHours(60), new PositiveAmount(200)));
+
+        assertEquals(new PositiveAmount(100), service.findEffective("code", 1, start.plusHours(10)).getAmount());
+        assertEquals(new PositiveAmount(200), service.findEffective("code", 1, start.plusHours(55)).getAmount());
+        assertEquals(new PositiveAmount(100), service.findEffective("code", 1, start.plusHours(70)).getAmount());
+        assertEquals(new PositiveAmount(200), service.findEffective("code", 1, start.plusHours(50)).getAmount());
+        assertEquals(new PositiveAmount(100), service.findEffective("code", 1, start.plusHours(49)).getAmount());
+    }
+
+    @Test
+    public void willFailOnlyTheSubmissionWhichCannotBeMerged() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        Price blocker = new Price("blocker", 1, 2, now.minusDays(1), now.plusDays(1), new PositiveAmount(100));
+        Price before = new Price("code", 1, 2, now.minusDays(3), now.minusDays(2), new PositiveAmount(100));
+        Price broken = new Price("code", 1, 2, now.minusDays(2), null, new PositiveAmount(110));
+        Price after = new Price("code", 1, 2, now.minusDays(1), now, new PositiveAmount(120));
+
+        CompletableFuture<MergeResult> merged;
+        CompletableFuture<MergeResult> failed;
+        CompletableFuture<MergeResult> mergedAfter;
+        Lock blocking = repository.lockFor(ProductKey.of(blocker));
+        try (PriceIngestPipeline pipeline = new PriceServiceImpl(repository).openPipeline(1, 8)) {
+            blocking.lock();
+            try {
+                pipeline.submit(blocker);
+                merged = pipeline.submit(before);
+                failed = pipeline.submit(broken);
+                mergedAfter = pipeline.submit(after);
+            } finally {
+                blocking.unlock();
+            }
+            assertEquals(1, merged.get(10, TimeUnit.SECONDS).getInserted());
+            assertEquals(1, mergedAfter.get(10, TimeUnit.SECONDS).getInserted());
+            try {
+                failed.get(10, TimeUnit.SECONDS);
+                fail("Цена без окончания не должна быть добавлена");
+            } catch (ExecutionException expected) {
+                // only the broken price fails
+            }
+        }
+
+        assertEquals(2, service.findByCodeNumberAndDepart("code", 1, 2).size());
+    }
+
+    @Test
+    public void willMergeSubmittedPricesOnClose() {
+        LocalDateTime now = LocalDateTime.now();
+        List<CompletableFuture<MergeResult>> submitted = new ArrayList<>();
+        PriceService closing = new PriceServiceImpl(repository);
+        for (int i = 0; i < 100; i++) {
+            submitted.add(closing.submit(copyOf(price, "code-" + i)));
+        }
+
+        closing.close();
+
+        for (CompletableFuture<MergeResult> future : submitted) {
+            assertTrue(future.isDone());
+            assertEquals(1, future.join().getInserted());
+        }
+        assertEquals(100, service.findAll().size());
+        try {
+            closing.submit(price);
+            fail("Закрытый сервис не должен принимать цены");
+        } catch (IllegalStateException expected) {
+            // nothing queued after close
+        }
+    }
+
+    @Test
+    public void willPublishChangesWhichReproduceStoredPrices() {
+        Map<Long, Price> replica = new HashMap<>();
+        PriceChangeLog log = new PriceChangeLog(16);
+        service.addChangeListener(changes -> {
+            changes.getDeleted().forEach(replica::remove);
+            changes.getSaved().forEach(saved -> replica.put(saved.getId(), saved));
+        });
+        service.addChangeListener(log);
+
+        MergeResult result = service.addAll(importedPrices(LocalDateTime.now()));
+
+        assertEquals(service.findAll().stream().map(Price::getId).collect(Collectors.toSet()), replica.keySet());
+        for (Price stored : service.findAll()) {
+            assertEquals(stored.getBegin(), replica.get(stored.getId()).getBegin());
+            assertEquals(stored.getEnd(), replica.get(stored.getId()).getEnd());
+        }
+        List<PriceChangeSet> published = log.readFrom(0, 16);
+        assertEquals(log.position(), published.size());
+        assertEquals(result.getInserted(), published.stream()
+                .flatMap(changes -> changes.getChanges().stream())
+                .filter(change -> change.getType() == PriceChange.Type.INSERTED)
+                .count());
+    }
+
+    @Test
+    public void willNotifyEveryListenerWhenOneFails() {
+        RecordingPriceMetrics metrics = new RecordingPriceMetrics();
+        PriceServiceImpl service = new PriceServiceImpl(repository, ForkJoinPool.commonPool(), new EffectivePriceCache(10), metrics);
+        List<RuntimeException> reported = new ArrayList<>();
+        List<PriceChangeSet> published = new ArrayList<>();
+        service.setListenerFailureHandler((listener, failure) -> reported.add(failure));
+        service.addChangeListener(changes -> {
+            throw new IllegalStateException("listener");
+        });
+        service.addChangeListener(published::add);
+
+        MergeResult result = service.addAll(Arrays.asList(firstPrice, copyOf(secondPrice, "other")));
+
+        assertEquals(2, result.getInserted());
+        assertEquals(2, service.findAll().size());
+        assertEquals(2, published.size());
+        assertEquals(2, reported.size());
+        assertEquals(2, metrics.counter(PriceMetric.LISTENER_FAILURES));
+    }
+
+    @Test
+    public void willPublishSplitOfContainingPrice() {
+        service.add(price);
+        List<PriceChangeSet> published = new ArrayList<>();
+        service.addChangeListener(published::add);
+        Price newPrice = new Price(
+                "code",
+                1,
+                2,
+                LocalDateTime.now().minusDays(2),
+                LocalDateTime.now().plusDays(2),
+                new PositiveAmount(150)
+        );
+
+        service.add(newPrice);
+
+        assertEquals(1, published.size());
+        List<PriceChange> changes = published.get(0).getChanges();
+        assertEquals(PriceChange.Type.INSERTED, changes.get(0).getType());
+        assertEquals(PriceChange.Type.SPLIT, changes.get(1).getType());
+        assertEquals(price.getId(), changes.get(1).getId());
+        assertEquals(price.getEnd(), changes.get(1).getPrevious().getEnd());
+        assertEquals(newPrice.getBegin(), changes.get(1).getCurrent().getEnd());
+        assertEquals(PriceChange.Type.SPLIT, changes.get(2).getType());
+        assertNull(changes.get(2).getPrevious());
+        assertEquals(3, service.findAll().size());
+    }
+
+    @Test
+    public void willMergeDepartmentsSeparately() {
+        LocalDateTime now = LocalDateTime.now();
+        Price first = new Price("code", 1, 1, now.minusDays(10), now.plusDays(10), new PositiveAmount(100));
+        Price second = new Price("code", 1, 2, now.minusDays(2), now.plusDays(2), new PositiveAmount(150));
+        Price third = new Price("code", 1, 2, now.plusDays(1), now.plusDays(5), new PositiveAmount(150));
+
+        MergeResult result = service.addAll(Arrays.asList(first, second, third));
+
+        assertEquals(2, result.getInserted());
+        assertEquals(1, result.getExtended());
+        assertEquals(0, result.getSplit());
+        assertEquals(2, service.findAll().size());
+        assertEquals(first.getEnd(), service.findByCodeNumberAndDepart("code", 1, 1).get(0).getEnd());
+        assertEquals(third.getEnd(), service.findByCodeNumberAndDepart("code", 1, 2).get(0).getEnd());
+        assertEquals(2, repository.findByCodeAndNumber("code", 1).size());
+        assertEquals(2, repository.findActiveAt("code", 1, now).size());
+        assertEquals(1, repository.findOverlapping("code", 1, 2, now.plusDays(3), now.plusDays(4)).size());
+        assertEquals(100, service.findEffective("code", 1, 1, now).getAmount().getValue().intValue());
+        assertEquals(150, service.findEffective("code", 1, 2, now).getAmount().getValue().intValue());
+        assertTrue(service.findByCodeNumberAndDepart("code", 1, 3).isEmpty());
+    }
+
+    @Test
+    public void willCoalesceAdjacentPricesAndDropExpiredOnes() {
+        LocalDateTime now = LocalDateTime.now();
+        Price expired = new Price("code", 1, 2, now.minusDays(30), now.minusDays(20), new PositiveAmount(100));
+        Price first = new Price("code", 1, 2, now.minusDays(10), now, new PositiveAmount(150));
+        Price second = new Price("code", 1, 2, now, now.plusDays(10), new PositiveAmount(150));
+        Price third = new Price("code", 1, 2, now.plusDays(10), now.plusDays(20), new PositiveAmount(150));
+        Price other = new Price("code", 1, 2, now.plusDays(20), now.plusDays(30), new PositiveAmount(200));
+        Price afterGap = new Price("code", 1, 2, now.plusDays(31), now.plusDays(40), new PositiveAmount(200));
+        Arrays.asList(expired, first, second, third, other, afterGap).forEach(repository::save);
+
+        CompactionResult result = service.compact(now.minusDays(15));
+
+        assertEquals(2, result.getCoalesced());
+        assertEquals(1, result.getExpired());
+        assertEquals(3, result.getReclaimed());
+        assertEquals(3, service.findAll().size());
+        assertEquals(third.getEnd(), service.find(first.getId()).getEnd());
+        assertNull(service.find(expired.getId()));
+        assertEquals(0, service.compact(now.minusDays(15)).getReclaimed());
+    }
+
+    @Test
+    public void willCompactOnlyProductsWrittenOrExpiringSince() {
+        LocalDateTime now = LocalDateTime.now();
+        service.add(new Price("a", 1, 2, now, now.plusDays(10), new PositiveAmount(100)));
+        service.add(new Price("b", 1, 2, now.minusDays(10), now.plusDays(5), new PositiveAmount(100)));
+        EffectivePriceCache cache = ((PriceServiceImpl) service).getEffectivePriceCache();
+        service.findEffective("b", 1, 2, now);
+
+        assertEquals(2, service.compact(now.minusDays(15)).getProducts());
+        service.findEffective("b", 1, 2, now);
+        assertEquals(1, cache.getHits());
+        assertEquals(0, service.compact(now.minusDays(15)).getProducts());
+
+        service.add(new Price("a", 1, 2, now.plusDays(10), now.plusDays(20), new PositiveAmount(150)));
+        assertEquals(1, service.compact(now.minusDays(15)).getProducts());
+
+        CompactionResult expiring = service.compact(now.plusDays(6));
+        assertEquals(1, expiring.getProducts());
+        assertEquals(1, expiring.getExpired());
+        assertEquals(2, service.findAll().size());
+    }
+
+    @Test
+    public void willCompactInBackground() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        repository.save(new Price("code", 1, 2, now.minusDays(10), now, new PositiveAmount(150)));
+        repository.save(new Price("code", 1, 2, now, now.plusDays(10), new PositiveAmount(150)));
+
+        CompactionResult result = service.compactInBackground(null).get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, result.getReclaimed());
+        assertEquals(1, service.findAll().size());
+    }
+
+    @Test
+    public void willPageThroughRangeQuery() {
+        LocalDateTime now = LocalDateTime.now();
+        for (int day = 0; day < 10; day++) {
+            repository.save(new Price("a", 1, day % 2, now.plusDays(day), now.plusDays(day + 1), new PositiveAmount(100 + day)));
+            repository.save(new Price("b", 1, 1, now.plusDays(day), now.plusDays(day + 1), new PositiveAmount(100 + day)));
+            repository.save(new Price("c", 1, 1, now.plusDays(day), now.plusDays(day + 1), new PositiveAmount(100 + day)));
+        }
+        PriceQuery query = new PriceQuery(
+                Arrays.asList(new ProductKey("b", 1, 1), new ProductKey("a", 1), new ProductKey("a", 1, 0)),
+                now.plusDays(2),
+                now.plusDays(8)
+        );
+
+        List<Price> streamed = service.findByQuery(query).collect(Collectors.toList());
+        List<Price> paged = new ArrayList<>();
+        String token = null;
+        int pages = 0;
+        do {
+            PricePage page = service.findPage(query, token, 4);
+            paged.addAll(page.getPrices());
+            token = page.getNextPageToken();
+            pages++;
+        } while (token != null);
+
+        assertEquals(12, streamed.size());
+        assertEquals(3, pages);
+        assertEquals(streamed.stream().map(Price::getId).collect(Collectors.toList()),
+                paged.stream().map(Price::getId).collect(Collectors.toList()));
+        assertEquals("a", streamed.get(0).getProductCode());
+        assertEquals("b", streamed.get(11).getProductCode());
+        assertEquals(4, service.findByQuery(query.withAmountBetween(new BigDecimal(103), new BigDecimal(104))).count());
+    }
+
+    @Test
+    public void willRestorePricesFromSnapshot() throws IOException {
+        LocalDateTime now = LocalDateTime.now();
+        service.addAll(importedPrices(now));
+        service.add(new Price("code", 1, 7, now, now.plusDays(1), new PositiveAmount(new BigDecimal("99.95"))));
+        Set<String> stored = periods(service.findAll());
+        Set<Long> ids = service.findAll().stream().map(Price::getId).collect(Collectors.toSet());
+        Path snapshot = Files.createTempFile("prices", ".snapshot");
+        try {
+            assertEquals(ids.size(), PriceSnapshots.write(repository, snapshot));
+            repository.truncate();
+
+            assertEquals(ids.size(), PriceSnapshots.read(snapshot, repository));
+
+            assertEquals(stored, periods(service.findAll()));
+            assertEquals(ids, service.findAll().stream().map(Price::getId).collect(Collectors.toSet()));
+            assertEquals(1, repository.findByCodeNumberAndDepart("code", 1, 7).size());
+            long maxId = ids.stream().mapToLong(Long::longValue).max().getAsLong();
+            assertTrue(new Price("code", 1, 2, now, now.plusDays(1), new PositiveAmount(1)).getId() > maxId);
+        } finally {
+            Files.delete(snapshot);
+        }
+    }
+
+    @Test
+    public void willKeepOpenEndedPricesAndFineAmountsInEveryRepository() throws IOException {
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        Price openEnded = new Price("code", 1, 2, now, LocalDateTime.of(9999, 12, 31, 0, 0),
+                new PositiveAmount(new BigDecimal("1.005")));
+        Price unbounded = new Price("code", 2, 2, LocalDateTime.MIN, LocalDateTime.MAX, new PositiveAmount(new BigDecimal("190.90")));
+        service.add(openEnded);
+        service.add(unbounded);
+        Path snapshot = Files.createTempFile("prices", ".snapshot");
+        try {
+            PriceSnapshots.write(repository, snapshot);
+            PriceSnapshots.read(snapshot, repository);
+        } finally {
+            Files.delete(snapshot);
+        }
+
+        Price found = service.findEffective("code", 1, 2, LocalDateTime.of(5000, 1, 1, 0, 0));
+        assertEquals(openEnded.getId(), found.getId());
+        assertEquals(openEnded.getEnd(), found.getEnd());
+        assertEquals(new BigDecimal("1.005"), found.getAmount().getValue());
+        Price always = service.findEffective("code", 2, 2, LocalDateTime.of(-5000, 1, 1, 0, 0, 0, 1));
+        assertEquals(LocalDateTime.MIN, always.getBegin());
+        assertEquals(LocalDateTime.MAX, always.getEnd());
+        assertEquals(new BigDecimal("190.90"), always.getAmount().getValue());
+        assertNull(service.findEffective("code", 1, 2, LocalDateTime.of(9999, 12, 31, 0, 0)));
+    }
+
+    @Test
+    public void willRejectCorruptedSnapshot() throws IOException {
+        service.addAll(importedPrices(LocalDateTime.now()));
+        int stored = service.findAll().size();
+        Path snapshot = Files.createTempFile("prices", ".snapshot");
+        try {
+            PriceSnapshots.write(repository, snapshot);
+            byte[] bytes = Files.readAllBytes(snapshot);
+            bytes[bytes.length - 1] ^= 1;
+            Files.write(snapshot, bytes);
+
+            try {
+                PriceSnapshots.read(snapshot, repository);
+                fail();
+            } catch (IllegalStateException expected) {
+                assertEquals(stored, service.findAll().size());
+            }
+        } finally {
+            Files.delete(snapshot);
+        }
+    }
+
+    @Test
+    public void willMaterializeEffectivePricesAtInstant() {
+        LocalDateTime now = LocalDateTime.now();
+        service.addAll(importedPrices(now));
+        service.add(new Price("code", 1, 3, now.minusDays(1), now.plusDays(1), new PositiveAmount(120)));
+        service.add(new Price("expired", 1, 2, now.minusDays(5), now.minusDays(1), new PositiveAmount(90)));
+        repository.save(new Price("overlapping", 1, 2, now.minusDays(5), now.plusDays(5), new PositiveAmount(300)));
+        repository.save(new Price("overlapping", 1, 2, now.minusDays(1), now.plusDays(1), new PositiveAmount(310)));
+        LocalDateTime instant = now.plusHours(1);
+
+        PriceBook book = service.materializeAt(instant);
+
+        assertEquals(4, book.size());
+        assertEquals(-1, book.indexOf(new ProductKey("expired", 1, 2)));
+        book.rows().forEach(row -> {
+            ProductKey key = book.getKey(row);
+            Price effective = service.findEffective(key.getProductCode(), key.getNumber(), key.getDepart(), instant);
+            assertEquals(effective.getId(), Long.valueOf(book.getId(row)));
+            assertEquals(0, effective.getAmount().getValue().compareTo(book.getAmount(row)));
+        });
+        assertEquals(0, new BigDecimal(310).compareTo(book.getAmount(book.indexOf(new ProductKey("overlapping", 1, 2)))));
+    }
+
+    @Test
+    public void willMaterializeFarFromNanosecondRange() {
+        Price far = new Price("far", 1, 2, LocalDateTime.of(2300, 1, 1, 0, 0, 0, 1_000), LocalDateTime.MAX,
+                new PositiveAmount(new BigDecimal("1.0001")));
+        Price always = new Price("always", 1, 2, LocalDateTime.MIN, LocalDateTime.MAX, new PositiveAmount(new BigDecimal("190.90")));
+        Price ancient = new Price("ancient", 1, 2, LocalDateTime.of(-100_000, 1, 1, 0, 0), LocalDateTime.of(-99_000, 1, 1, 0, 0),
+                new PositiveAmount(100));
+        Arrays.asList(far, always, ancient).forEach(service::add);
+
+        PriceBook book = service.materializeAt(LocalDateTime.of(3000, 1, 1, 0, 0, 0, 1));
+
+        assertEquals(2, book.size());
+        assertEquals(-1, book.indexOf(new ProductKey("ancient", 1, 2)));
+        assertEquals(far.getId(), Long.valueOf(book.getId(book.indexOf(new ProductKey("far", 1, 2)))));
+        assertEquals(0, new BigDecimal("1.0001").compareTo(book.getAmount(book.indexOf(new ProductKey("far", 1, 2)))));
+        assertEquals(always.getId(), Long.valueOf(book.getId(book.indexOf(new ProductKey("always", 1, 2)))));
+        assertEquals(1, service.materializeAt(LocalDateTime.of(2300, 1, 1, 0, 0)).size());
+        assertEquals(2, service.materializeAt(LocalDateTime.of(-99_500, 1, 1, 0, 0)).size());
+    }
+
+    @Test
+    public void willMaterializeMemoryTimelineWhichCannotBePacked() {
+        PriceRepository memory = new PriceRepositoryImpl();
+        Price subMicro = new Price("far", 1, 2, LocalDateTime.of(2300, 1, 1, 0, 0, 0, 1), LocalDateTime.of(2400, 1, 1, 0, 0),
+                new PositiveAmount(100));
+        try {
+            memory.save(subMicro);
+
+            assertEquals(1, memory.materializeAt(LocalDateTime.of(2300, 1, 1, 0, 0, 0, 1)).size());
+            assertEquals(0, memory.materializeAt(LocalDateTime.of(2300, 1, 1, 0, 0)).size());
+        } finally {
+            memory.truncate();
+        }
+    }
+
+    /*
+    Before:
+    |----200----|
+    After adding 200.00:
+    |---------200---------|
+    */
+    @Test
+    public void willMergeSameAmountGivenWithDifferentScale() {
+        Price sameAmount = new Price("code", 1, 2, price.getEnd(), price.getEnd().plusWeeks(1),
+                new PositiveAmount(new BigDecimal("200.00")));
+        service.add(price);
+        service.add(sameAmount);
+
+        Collection<Price> prices = service.findAll();
+
+        assertEquals(1, prices.size());
+        assertEquals(price.getAmount(), sameAmount.getAmount());
+        assertEquals(price.getAmount().hashCode(), sameAmount.getAmount().hashCode());
+        assertEquals(new BigDecimal("200.00"), sameAmount.getAmount().getValue());
+    }
+
+    @Test
+    public void willShareWholeAmountsReadBackFromRepository() {
+        Price whole = new Price("code", 1, 2, price.getBegin(), price.getEnd(), PositiveAmount.of(150));
+        service.add(whole);
+
+        PositiveAmount stored = service.find(whole.getId()).getAmount();
+
+        assertSame(PositiveAmount.of(150), stored);
+        assertSame(PositiveAmount.of(150), PositiveAmount.of(150, 0));
+        assertSame(PositiveAmount.of(150), PositiveAmount.ofUnits(1_500_000, 0));
+        assertEquals(new BigDecimal("150"), stored.getValue());
+        assertEquals(new BigDecimal("150.00"), PositiveAmount.of(15_000, 2).getValue());
+    }
+
+    private static List<Price> importedPrices(LocalDateTime now) {
+        return Arrays.asList(
+                new Price("code", 1, 2, now.minusDays(30), now, new PositiveAmount(210)),
+                new Price("another", 1, 2, now, now.plusDays(5), new PositiveAmount(200)),
+                new Price("code", 1, 2, now, now.plusDays(7), new PositiveAmount(190)),
+                new Price("code", 1, 2, now.minusDays(2), now.plusDays(2), new PositiveAmount(180)),
+                new Price("another", 1, 2, now.plusDays(4), now.plusDays(9), new PositiveAmount(200)),
+                new Price("code", 1, 2, now.minusDays(3), now.plusDays(3), new PositiveAmount(140))
+        );
+    }
+
+    private static Price copyOf(Price price, String productCode) {
+        return new Price(productCode, price.getNumber(), price.getDepart(), price.getBegin(), price.getEnd(), price.getAmount());
+    }
+
+    private static Set<String> periods(Collection<Price> prices) {
+        return prices.stream()
+                .map(price -> price.getProductCode() + " " + price.getBegin() + " " + price.getEnd() + " " + price.getAmount().getValue().stripTrailingZeros().toPlainString())
+                .collect(Collectors.toSet());
+    }
+}
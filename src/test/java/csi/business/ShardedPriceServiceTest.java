@@ -0,0 +1,144 @@
+package csi.business;
+
+import csi.internal.OffHeapPriceRepository;
+import csi.internal.PositiveAmount;
+import csi.internal.Price;
+import csi.internal.PriceRepository;
+import csi.internal.PriceRepositoryImpl;
+import csi.internal.PriceShardServer;
+import csi.internal.ProductKey;
+import csi.internal.RemotePriceRepository;
+import csi.internal.ShardedPriceRepository;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/*
+The remote shard runs in a separate JVM started once for the class, as it would in production.
+*/
+public class ShardedPriceServiceTest extends PriceServiceTest {
+
+    private static JavaProcess server;
+    private static int port;
+
+    private RemotePriceRepository remote;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = JavaProcess.start(PriceShardServer.class, "0", "offheap");
+        String started = server.readLine();
+        assertNotNull("Хранилище цен не запустилось", started);
+        port = Integer.parseInt(started.substring(started.lastIndexOf(' ') + 1));
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        server.close();
+    }
+
+    @Override
+    protected PriceRepository createRepository() {
+        remote = new RemotePriceRepository("localhost", port);
+        ShardedPriceRepository sharded = new ShardedPriceRepository();
+        sharded.addShard("first", new OffHeapPriceRepository(4));
+        sharded.addShard("second", new OffHeapPriceRepository(4));
+        sharded.addShard("remote", remote);
+        return sharded;
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        try {
+            remote.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void willMoveOnlyTakenOverProductsToNewShard() {
+        ShardedPriceRepository sharded = new ShardedPriceRepository();
+        sharded.addShard("first", new OffHeapPriceRepository(4));
+        sharded.addShard("second", new OffHeapPriceRepository(4));
+        PriceService shardedService = new PriceServiceImpl(sharded);
+        LocalDateTime begin = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int number = 0; number < 200; number++) {
+            for (int depart = 1; depart <= 2; depart++) {
+                shardedService.add(new Price("sharded", number, depart, begin, begin.plusDays(1), new PositiveAmount(100 + number)));
+            }
+        }
+        Map<ProductKey, PriceRepository> owners = new HashMap<>();
+        for (ProductKey key : sharded.findProductKeys()) {
+            owners.put(key, sharded.shardFor(key));
+        }
+
+        OffHeapPriceRepository third = new OffHeapPriceRepository(4);
+        long moved = sharded.addShard("third", third);
+
+        Set<ProductKey> keys = sharded.findProductKeys();
+        assertEquals(400, keys.size());
+        assertEquals(third.findProductKeys().size(), moved);
+        assertTrue(moved > 0 && moved < 400);
+        for (ProductKey key : keys) {
+            PriceRepository owner = sharded.shardFor(key);
+            assertTrue(owner == owners.get(key) || owner == third);
+            assertEquals(sharded.shardFor(key.product()), owner);
+            assertEquals(1, owner.findByCodeNumberAndDepart(key.getProductCode(), key.getNumber(), key.getDepart()).size());
+        }
+        assertEquals(400, sharded.findAll().size());
+        assertEquals(2, sharded.findActiveAt("sharded", 7, begin).size());
+        assertEquals(0, new PositiveAmount(107).getValue().compareTo(shardedService.findEffective("sharded", 7, 2, begin).getAmount().getValue()));
+    }
+
+    @Test
+    public void willMovePricesBetweenMemoryShards() {
+        ShardedPriceRepository sharded = new ShardedPriceRepository();
+        sharded.addShard("a", new PriceRepositoryImpl());
+        PriceService shardedService = new PriceServiceImpl(sharded);
+        LocalDateTime begin = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int number = 0; number < 50; number++) {
+            shardedService.add(new Price("memory", number, 2, begin, begin.plusDays(1), new PositiveAmount(100 + number)));
+        }
+
+        long moved = sharded.addShard("b", new PriceRepositoryImpl());
+
+        assertTrue(moved > 0 && moved < 50);
+        Set<Long> ids = new HashSet<>();
+        for (Price price : sharded.findAll()) {
+            assertTrue("Цена " + price.getId() + " найдена дважды", ids.add(price.getId()));
+        }
+        assertEquals(50, ids.size());
+        sharded.truncate();
+    }
+
+    @Test
+    public void willReportFailureOfShardItself() throws IOException {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        ShardedPriceRepository sharded = new ShardedPriceRepository();
+        sharded.addShard("first", new OffHeapPriceRepository(4));
+        try (RemotePriceRepository unreachable = new RemotePriceRepository("localhost", closedPort)) {
+            sharded.addShard("unreachable", unreachable);
+            sharded.findAll();
+            fail("Недоступное хранилище должно сообщить об ошибке");
+        } catch (UncheckedIOException expected) {
+            // the shard's own exception, not a CompletionException around it
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package csi.internal;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CompactPriceTest {
+
+    @Test
+    public void willSelectPriceActiveFromItsBeginUntilItsEnd() {
+        assertFalse(CompactPrice.isActiveAt(10, 20, 9));
+        assertTrue(CompactPrice.isActiveAt(10, 20, 10));
+        assertTrue(CompactPrice.isActiveAt(10, 20, 19));
+        assertFalse(CompactPrice.isActiveAt(10, 20, 20));
+        assertTrue(CompactPrice.isActiveAt(EpochNanos.MIN, EpochNanos.MAX, 0));
+    }
+
+    @Test
+    public void willSelectPeriodsSharingAnInstant() {
+        assertTrue(CompactPrice.intersects(10, 20, 15, 25));
+        assertTrue(CompactPrice.intersects(10, 20, 5, 11));
+        assertTrue(CompactPrice.intersects(10, 20, 12, 13));
+        assertTrue(CompactPrice.intersects(10, 20, 0, 30));
+        assertFalse(CompactPrice.intersects(10, 20, 20, 30));
+        assertFalse(CompactPrice.intersects(10, 20, 0, 10));
+    }
+
+    @Test
+    public void willRestorePriceFromCompactForm() {
+        LocalDateTime begin = LocalDateTime.of(2024, 1, 1, 10, 0, 0, 123_456_789);
+        Price price = new Price("compact", 1, 2, begin, LocalDateTime.of(9999, 12, 31, 0, 0),
+                new PositiveAmount(new BigDecimal("99.90")));
+
+        Price restored = CompactPrice.of(price).toPrice();
+
+        assertEquals(price.getId(), restored.getId());
+        assertEquals(begin, restored.getBegin());
+        assertEquals(price.getEnd(), restored.getEnd());
+        assertEquals(new BigDecimal("99.90"), restored.getAmount().getValue());
+    }
+}
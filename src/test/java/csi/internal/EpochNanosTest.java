@@ -0,0 +1,72 @@
+package csi.internal;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EpochNanosTest {
+
+    private static final LocalDateTime FIRST_EXACT = LocalDateTime.ofEpochSecond(-4_000_000_000L, 0, ZoneOffset.UTC);
+    private static final LocalDateTime LAST_EXACT = LocalDateTime.ofEpochSecond(4_000_000_000L - 1, 999_999_999, ZoneOffset.UTC);
+
+    @Test
+    public void willPackNanosecondsExactlyAtEdgesOfExactRange() {
+        assertEquals(1843, FIRST_EXACT.getYear());
+        assertEquals(2096, LAST_EXACT.getYear());
+
+        for (LocalDateTime edge : new LocalDateTime[]{FIRST_EXACT, FIRST_EXACT.plusNanos(1), LAST_EXACT, LAST_EXACT.minusNanos(1)}) {
+            assertTrue(EpochNanos.isExact(edge));
+            assertEquals(edge, EpochNanos.toDateTime(EpochNanos.of(edge)));
+        }
+        assertEquals(-4_000_000_000L * 1_000_000_000L, EpochNanos.of(FIRST_EXACT));
+        assertEquals(4_000_000_000L * 1_000_000_000L - 1, EpochNanos.of(LAST_EXACT));
+    }
+
+    @Test
+    public void willPackMicrosecondsJustOutsideExactRange() {
+        LocalDateTime before = FIRST_EXACT.minusNanos(1_000);
+        LocalDateTime after = LAST_EXACT.plusNanos(1);
+
+        assertEquals(before, EpochNanos.toDateTime(EpochNanos.of(before)));
+        assertEquals(after, EpochNanos.toDateTime(EpochNanos.of(after)));
+        assertEquals(EpochNanos.of(FIRST_EXACT) - 1, EpochNanos.of(before));
+        assertEquals(EpochNanos.of(LAST_EXACT) + 1, EpochNanos.of(after));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotPackFractionOfMicrosecondOutsideExactRange() {
+        EpochNanos.of(FIRST_EXACT.minusNanos(1));
+    }
+
+    @Test
+    public void willRoundFractionOfMicrosecondOutsideExactRangeForLookups() {
+        LocalDateTime between = LAST_EXACT.plusNanos(500);
+
+        assertFalse(EpochNanos.isExact(between));
+        assertEquals(EpochNanos.of(LAST_EXACT) + 1, EpochNanos.floor(between));
+        assertEquals(EpochNanos.of(LAST_EXACT) + 2, EpochNanos.ceiling(between));
+    }
+
+    @Test
+    public void willKeepOrderAcrossEdgesOfExactRange() {
+        LocalDateTime[] ordered = {
+                LocalDateTime.MIN,
+                FIRST_EXACT.minusYears(1000),
+                FIRST_EXACT.minusNanos(1_000),
+                FIRST_EXACT,
+                LAST_EXACT,
+                LAST_EXACT.plusNanos(1),
+                LocalDateTime.of(9999, 12, 31, 0, 0),
+                LocalDateTime.MAX
+        };
+        for (int i = 1; i < ordered.length; i++) {
+            assertTrue(EpochNanos.of(ordered[i - 1]) < EpochNanos.of(ordered[i]));
+        }
+        assertEquals(EpochNanos.MIN, EpochNanos.of(LocalDateTime.MIN));
+        assertEquals(EpochNanos.MAX, EpochNanos.of(LocalDateTime.MAX));
+        assertEquals(LocalDateTime.MAX, EpochNanos.toDateTime(EpochNanos.MAX));
+    }
+}